@@ -1,6 +1,7 @@
 plugins {
 	id("com.gradleup.shadow") version "8.3.5"
 	id("qupath-conventions")
+	id("me.champeau.jmh") version "0.7.2"
 	`maven-publish`
 }
 
@@ -46,6 +47,36 @@ dependencies {
 	// For testing
 	testImplementation(libs.bundles.qupath)
 	testImplementation(libs.junit)
+
+	// For benchmarking (the 'shadow' dependencies are not part of the jmh classpath)
+	jmh(libs.bundles.qupath)
+	jmh(libs.bundles.logging)
+	jmh(libs.qupath.fxtras)
+}
+
+
+// start a gateway without the QuPath GUI, e.g. 'gradlew runHeadless --args="--port 25333 --max-calls 8"'
+tasks.register<JavaExec>("runHeadless") {
+	group = "application"
+	description = "Start a headless gateway with QuPathEZ as entry point"
+	classpath = sourceSets["main"].runtimeClasspath + configurations["shadow"]
+	mainClass = "qupath.ext.py4j.core.QuPathHeadless"
+	jvmArgs("-Djava.awt.headless=true")
+}
+
+
+// configure the benchmarks of src/jmh, run with 'gradlew jmh'
+// (a subset can be selected with e.g. 'gradlew jmh -Pjmh.includes=ImageBytesBenchmark')
+jmh {
+	jmhVersion = "1.37"
+	fork = 1
+	warmupIterations = 3
+	iterations = 5
+	jvmArgs = listOf("-Xmx8g")
+	resultFormat = "JSON"
+	if (project.hasProperty("jmh.includes")) {
+		includes = listOf(project.property("jmh.includes").toString())
+	}
 }
 
 
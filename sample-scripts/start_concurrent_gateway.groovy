@@ -0,0 +1,21 @@
+import qupath.ext.py4j.core.ConcurrentGateway
+
+/*
+ * This script starts a gateway serving many Python clients at the same time
+ * on the provided port and using the provided token.
+ *
+ * Heavy calls (pixel reads, exports, imports...) are shared between clients:
+ * each client runs at most clientQuota of them at the same time, and all clients
+ * together at most maxConcurrentCalls. A Python process using several threads can
+ * call qupath.setClientId("...") from each thread so that they share the same quota.
+ *
+ * Once this script is run, the gateway will stay open until QuPath is closed.
+ */
+
+def port = -1                   // the port the gateway should use, or a negative number to use the default port
+def token = ""                  // the token the gateway should accept, or an empty text to disable authentication
+def maxConcurrentCalls = Runtime.getRuntime().availableProcessors()   // or 0 for no limit
+def clientQuota = 2             // or 0 for no limit
+
+def gateway = ConcurrentGateway.start(port, token, maxConcurrentCalls, clientQuota)
+println "Gateway started on port ${gateway.getListeningPort()}"
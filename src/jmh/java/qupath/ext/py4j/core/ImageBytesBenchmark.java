@@ -0,0 +1,35 @@
+package qupath.ext.py4j.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark the encoding of image regions, as done for each tile requested from Python.
+ *
+ * <p>
+ *     Tiles are read from {@link SyntheticTiles}, and encoded in each of the supported formats.
+ *     Raw pixels are benchmarked separately by {@link RawPixelsBenchmark}, as they do not depend on the format.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageBytesBenchmark {
+
+	@Param({"png", "jpg", "tif", "imagej tiff"})
+	private String format;
+
+	@Benchmark
+	public byte[] getImageBytes(SyntheticTiles tiles) throws IOException {
+		return QuPathEZ.getImageBytes(tiles.server, tiles.nextRequest(), format);
+	}
+}
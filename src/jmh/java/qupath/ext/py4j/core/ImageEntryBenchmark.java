@@ -0,0 +1,78 @@
+package qupath.ext.py4j.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.regions.RegionRequest;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Benchmark the addition of an image to a project, which opens the image,
+ * estimates its type and renders its thumbnail.
+ *
+ * <p>
+ *     The image is a TIFF file written once from a {@link SyntheticImageServer},
+ *     and a new project is created in its own directory for each iteration, so that
+ *     entries added by previous iterations are not part of the measurement.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageEntryBenchmark {
+
+	private Path directory;
+	private String imagePath;
+	private Project<BufferedImage> project;
+	private int nProjects = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("qupath-py4j-benchmark-");
+		try (var server = new SyntheticImageServer(4096, 4096, 1, 512)) {
+			var img = server.readRegion(RegionRequest.createInstance(server.getPath(), 2.0, 0, 0, 4096, 4096));
+			var file = directory.resolve("synthetic.tif");
+			ImageIO.write(img, "tiff", file.toFile());
+			imagePath = file.toString();
+		}
+		QuPathEZ.setGatewayMetricsEnabled(false);
+	}
+
+	@Setup(Level.Iteration)
+	public void createProject() {
+		project = QuPathEZ.createProject(directory.resolve("project-" + nProjects++).toString());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public ProjectImageEntry<BufferedImage> addImageEntry() throws Exception {
+		try (var server = QuPathEZ.createImageServer(imagePath)) {
+			return QuPathEZ.addImageEntry(project, server);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package qupath.ext.py4j.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark the conversion of objects to and from GeoJSON, and the export of their measurements.
+ *
+ * <p>
+ *     The hierarchy contains <code>nObjects</code> classified detections laid out on a grid,
+ *     each one with an octagonal ROI and a few measurements.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PathObjectsBenchmark {
+
+	private static final String[] MEASUREMENTS = {"Area", "Perimeter", "Mean", "Std.Dev.", "Max"};
+
+	@Param({"10000", "100000", "1000000"})
+	private int nObjects;
+
+	private ImageData<BufferedImage> imageData;
+	private List<PathObject> detections;
+	private String geoJson;
+	private String columnsPath;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		var server = new SyntheticImageServer(100_000, 100_000, 1, 512);
+		imageData = new ImageData<>(server);
+		var pathClasses = new PathClass[] {PathClass.fromString("Tumor"), PathClass.fromString("Stroma")};
+		int nColumns = (int) Math.ceil(Math.sqrt(nObjects));
+		detections = new ArrayList<>(nObjects);
+		for (int i = 0; i < nObjects; i++) {
+			double x = (i % nColumns) * 20.0;
+			double y = (i / nColumns) * 20.0;
+			var xs = new double[8];
+			var ys = new double[8];
+			for (int p = 0; p < 8; p++) {
+				xs[p] = x + 8 + 7 * Math.cos(p * Math.PI / 4);
+				ys[p] = y + 8 + 7 * Math.sin(p * Math.PI / 4);
+			}
+			var detection = PathObjects.createDetectionObject(
+					ROIs.createPolygonROI(xs, ys, ImagePlane.getDefaultPlane()), pathClasses[i % 2]);
+			try (var measurements = detection.getMeasurementList()) {
+				for (int m = 0; m < MEASUREMENTS.length; m++) {
+					measurements.put(MEASUREMENTS[m], (i * 31 + m * 7) % 1000 / 10.0);
+				}
+			}
+			detections.add(detection);
+		}
+		imageData.getHierarchy().addObjects(detections);
+		geoJson = QuPathEntryPoint.toGeoJsonFeatureList(detections);
+		columnsPath = Files.createTempFile("qupath-py4j-benchmark-", ".cols").toString();
+		QuPathEZ.setGatewayMetricsEnabled(false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(Path.of(columnsPath));
+		imageData.getServer().close();
+	}
+
+	@Benchmark
+	public String toGeoJsonFeatureList() {
+		return QuPathEntryPoint.toGeoJsonFeatureList(detections);
+	}
+
+	@Benchmark
+	public List<PathObject> toPathObjects() {
+		return QuPathEntryPoint.toPathObjects(geoJson);
+	}
+
+	@Benchmark
+	public long writeGeoJson() throws IOException {
+		var path = Files.createTempFile("qupath-py4j-benchmark-", ".geojson");
+		try {
+			return QuPathEZ.writeGeoJson(imageData.getHierarchy(), path.toString(), false, 2);
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Benchmark
+	public String getMeasurementTable() {
+		return QuPathEntryPoint.getMeasurementTable(imageData, detections);
+	}
+
+	@Benchmark
+	public String getMeasurementColumns() throws IOException {
+		return QuPathEZ.getMeasurementColumns(detections, List.of(MEASUREMENTS), columnsPath);
+	}
+}
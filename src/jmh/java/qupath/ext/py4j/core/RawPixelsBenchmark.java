@@ -0,0 +1,34 @@
+package qupath.ext.py4j.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark the transfer of image regions without image encoding,
+ * as raw pixels or as a stack of TIFF planes.
+ *
+ * <p>
+ *     Tiles are read from {@link SyntheticTiles}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RawPixelsBenchmark {
+
+	@Benchmark
+	public byte[] getRawPixels(SyntheticTiles tiles) throws IOException {
+		return QuPathEZ.getRawPixels(tiles.server, tiles.nextRequest(), false);
+	}
+
+	@Benchmark
+	public byte[] getTiffStack(SyntheticTiles tiles) throws IOException {
+		var request = tiles.nextRequest();
+		return QuPathEZ.getTiffStack(tiles.server, 1.0, request.getX(), request.getY(), tiles.tileSize, tiles.tileSize);
+	}
+}
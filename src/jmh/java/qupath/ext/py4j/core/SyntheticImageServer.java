@@ -0,0 +1,117 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * A pyramidal RGB image server whose pixels are generated, so that benchmarks
+ * can run without any slide.
+ *
+ * <p>
+ *     Pixels are a smooth background with a regular grid of dark "nuclei",
+ *     which compresses roughly like a brightfield slide. The value of a pixel
+ *     only depends on its full resolution coordinates, so tiles are deterministic.
+ * </p>
+ * <p>
+ *     The server has no {@link ServerBuilder}: it can't be serialized, added to a project
+ *     or rebuilt, and is only meant to be read directly by benchmarks.
+ * </p>
+ */
+public class SyntheticImageServer extends AbstractTileableImageServer {
+
+	private static final int CELL_SPACING = 24;
+	private static final int CELL_RADIUS = 7;
+
+	private final ImageServerMetadata metadata;
+
+	/**
+	 * Create a synthetic image server.
+	 *
+	 * @param width    the width of the full resolution image
+	 * @param height   the height of the full resolution image
+	 * @param nZSlices the number of z-slices
+	 * @param tileSize the width and height of the tiles
+	 */
+	public SyntheticImageServer(int width, int height, int nZSlices, int tileSize) {
+		this.metadata = new ImageServerMetadata.Builder()
+				.width(width)
+				.height(height)
+				.sizeZ(nZSlices)
+				.rgb(true)
+				.pixelType(PixelType.UINT8)
+				.channels(ImageChannel.getDefaultRGBChannels())
+				.preferredTileSize(tileSize, tileSize)
+				.levelsFromDownsamples(1, 4, 16)
+				.name("synthetic")
+				.build();
+	}
+
+	@Override
+	protected BufferedImage readTile(TileRequest tileRequest) {
+		int width = tileRequest.getTileWidth();
+		int height = tileRequest.getTileHeight();
+		double downsample = tileRequest.getDownsample();
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		for (int y = 0; y < height; y++) {
+			int fullY = (int) (tileRequest.getImageY() + y * downsample);
+			for (int x = 0; x < width; x++) {
+				int fullX = (int) (tileRequest.getImageX() + x * downsample);
+				pixels[y * width + x] = pixel(fullX, fullY, tileRequest.getZ());
+			}
+		}
+		return img;
+	}
+
+	private static int pixel(int x, int y, int z) {
+		int dx = Math.floorMod(x + 3 * z, CELL_SPACING) - CELL_SPACING / 2;
+		int dy = Math.floorMod(y, CELL_SPACING) - CELL_SPACING / 2;
+		if (dx * dx + dy * dy <= CELL_RADIUS * CELL_RADIUS) {
+			return (70 << 16) | (40 << 8) | 120;
+		}
+		int background = 200 + ((x >> 6) + (y >> 6)) % 40;
+		return (background << 16) | ((background - 20) << 8) | Math.min(255, background + 10);
+	}
+
+	/**
+	 * Synthetic images have no builder, as their pixels are not stored anywhere.
+	 *
+	 * @return <b>null</b>
+	 */
+	@Override
+	protected ServerBuilder<BufferedImage> createServerBuilder() {
+		return null;
+	}
+
+	@Override
+	protected String createID() {
+		return getClass().getName() + ": " + metadata.getWidth() + "x" + metadata.getHeight() +
+				"x" + metadata.getSizeZ() + " (" + metadata.getPreferredTileWidth() + ")";
+	}
+
+	@Override
+	public Collection<URI> getURIs() {
+		return List.of();
+	}
+
+	@Override
+	public String getServerType() {
+		return "Synthetic";
+	}
+
+	@Override
+	public ImageServerMetadata getOriginalMetadata() {
+		return metadata;
+	}
+}
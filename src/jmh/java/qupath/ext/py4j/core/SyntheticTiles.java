@@ -0,0 +1,58 @@
+package qupath.ext.py4j.core;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Tiles of a {@link SyntheticImageServer} shared by the benchmarks reading image regions.
+ *
+ * <p>
+ *     Each call to {@link #nextRequest()} returns a different tile, so the cost of reading
+ *     pixels is included but no cache is hit.
+ *     Benchmarks call the {@link QuPathEZ} methods that Python calls, so the overhead of the gateway
+ *     scheduler, the tile cache and the metrics is measured too; the tile cache and the metrics are disabled,
+ *     as in a default gateway.
+ * </p>
+ */
+@State(Scope.Thread)
+public class SyntheticTiles {
+
+	private static final int IMAGE_SIZE = 16384;
+
+	@Param({"256", "512", "1024"})
+	int tileSize;
+
+	ImageServer<BufferedImage> server;
+	private int nTilesX;
+	private int nTiles;
+	private int tile;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		server = new SyntheticImageServer(IMAGE_SIZE, IMAGE_SIZE, 3, tileSize);
+		nTilesX = IMAGE_SIZE / tileSize;
+		nTiles = nTilesX * nTilesX;
+		QuPathEZ.setTileCacheMaxBytes(0);
+		QuPathEZ.setGatewayMetricsEnabled(false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	RegionRequest nextRequest() {
+		int i = tile++ % nTiles;
+		return RegionRequest.createInstance(server.getPath(), 1.0,
+				(i % nTilesX) * tileSize, (i / nTilesX) * tileSize, tileSize, tileSize);
+	}
+}
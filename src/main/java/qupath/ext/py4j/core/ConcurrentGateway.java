@@ -0,0 +1,65 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import py4j.DefaultGatewayServerListener;
+import py4j.GatewayServer;
+import py4j.Py4JServerConnection;
+
+
+/**
+ * Start a gateway serving many Python clients at the same time, with {@link QuPathEZ} as entry point.
+ *
+ * <p>
+ *     Each Python connection is served by its own thread, and heavy calls are shared between
+ *     clients as described in {@link QuPathEZ#configureGatewayScheduler(int, int)}.
+ *     Calls touching the QuPath GUI are still run one at a time on the JavaFX application thread.
+ * </p>
+ */
+public class ConcurrentGateway {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConcurrentGateway.class);
+
+	private ConcurrentGateway() {
+	}
+
+	/**
+	 * Start a gateway on <code>port</code>.
+	 *
+	 * @param port               the port the gateway should use, or a negative number to use the default port
+	 * @param token              the token the gateway should accept, or <b>null</b> or an empty text to disable authentication
+	 * @param maxConcurrentCalls the maximum number of heavy calls of all clients running at the same time,
+	 *                           or a value &lt;= 0 for no limit
+	 * @param clientQuota        the maximum number of heavy calls of a single client running at the same time,
+	 *                           or a value &lt;= 0 for no limit
+	 * @return the started gateway, to be stopped with {@link GatewayServer#shutdown()}
+	 */
+	public static GatewayServer start(int port, String token, int maxConcurrentCalls, int clientQuota) {
+		QuPathEZ.configureGatewayScheduler(maxConcurrentCalls, clientQuota);
+
+		var builder = new GatewayServer.GatewayServerBuilder(new QuPathEZ());
+		if (port >= 0) {
+			builder.javaPort(port);
+		}
+		if (token != null && !token.isEmpty()) {
+			builder.authToken(token);
+		}
+		var server = builder.build();
+		server.addListener(new DefaultGatewayServerListener() {
+			@Override
+			public void connectionStarted(Py4JServerConnection connection) {
+				logger.debug("Gateway connection started from {}", connection.getSocket().getRemoteSocketAddress());
+			}
+
+			@Override
+			public void connectionStopped(Py4JServerConnection connection) {
+				logger.debug("Gateway connection stopped from {}", connection.getSocket().getRemoteSocketAddress());
+			}
+		});
+		server.start();
+		logger.info("Gateway started on port {} (at most {} heavy calls, {} per client)", server.getListeningPort(),
+				maxConcurrentCalls > 0 ? maxConcurrentCalls : "unlimited",
+				clientQuota > 0 ? clientQuota : "unlimited");
+		return server;
+	}
+}
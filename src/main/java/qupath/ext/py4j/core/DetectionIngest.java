@@ -0,0 +1,154 @@
+package qupath.ext.py4j.core;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.GeometryTools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.stream.IntStream;
+
+
+/**
+ * Create detection objects from a packed binary buffer and add them to a hierarchy at once.
+ *
+ * <p>
+ *     The buffer is little-endian and laid out as follows:
+ * </p>
+ * <pre>
+ * bytes  0-3   magic "QPDT"
+ * bytes  4-7   int32 version (1)
+ * bytes  8-11  int32 number of objects nObjects
+ * bytes 12-15  int32 number of rings nRings
+ * bytes 16-19  int32 number of points nPoints
+ * bytes 20-23  int32 number of measurements nMeasurements
+ * int32[nObjects + 1]              ring offsets: object i has rings [ringOffsets[i], ringOffsets[i+1]),
+ *                                  the first one being its shell and the others its holes
+ * int32[nRings + 1]                point offsets: ring j has points [pointOffsets[j], pointOffsets[j+1])
+ * int32[nObjects]                  class index of each object in the list of class names, or -1 for no class
+ * float64[nPoints * 2]             x, y coordinates of each point, in full resolution pixels
+ * float64[nObjects * nMeasurements] measurements of each object, row by row
+ * </pre>
+ */
+final class DetectionIngest {
+
+	private static final int MAGIC = ('Q') | ('P' << 8) | ('D' << 16) | ('T' << 24);
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private DetectionIngest() {
+	}
+
+	/**
+	 * Create the detections described by <code>buffer</code> in parallel,
+	 * and add them to <code>hierarchy</code> with a single event.
+	 *
+	 * @param hierarchy        the hierarchy to add the detections to
+	 * @param buffer           the packed detections
+	 * @param classNames       the names of the classes referenced by the class indices
+	 * @param measurementNames the names of the measurements of each object
+	 * @param plane            the plane of the detections
+	 * @return the created detections
+	 */
+	static List<PathObject> addDetections(
+			PathObjectHierarchy hierarchy,
+			ByteBuffer buffer,
+			List<String> classNames,
+			List<String> measurementNames,
+			ImagePlane plane) {
+		buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Buffer does not start with the magic QPDT");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IllegalArgumentException("Unsupported detection buffer version " + buffer.getInt(4));
+		}
+		int nObjects = buffer.getInt(8);
+		int nRings = buffer.getInt(12);
+		int nPoints = buffer.getInt(16);
+		int nMeasurements = buffer.getInt(20);
+		if (nMeasurements != measurementNames.size()) {
+			throw new IllegalArgumentException("Buffer has " + nMeasurements + " measurements, but " +
+					measurementNames.size() + " measurement names were provided");
+		}
+
+		int position = HEADER_SIZE;
+		IntBuffer ringOffsets = intView(buffer, position, nObjects + 1);
+		position += (nObjects + 1) * Integer.BYTES;
+		IntBuffer pointOffsets = intView(buffer, position, nRings + 1);
+		position += (nRings + 1) * Integer.BYTES;
+		IntBuffer classIndices = intView(buffer, position, nObjects);
+		position += nObjects * Integer.BYTES;
+		DoubleBuffer coordinates = doubleView(buffer, position, nPoints * 2);
+		position += nPoints * 2 * Double.BYTES;
+		DoubleBuffer measurements = doubleView(buffer, position, nObjects * nMeasurements);
+
+		var pathClasses = new PathClass[classNames.size()];
+		for (int i = 0; i < pathClasses.length; i++) {
+			pathClasses[i] = PathClass.fromString(classNames.get(i));
+		}
+		var factory = GeometryTools.getDefaultFactory();
+
+		var detections = IntStream.range(0, nObjects).parallel().mapToObj(i -> {
+			int firstRing = ringOffsets.get(i);
+			int lastRing = ringOffsets.get(i + 1);
+			if (lastRing <= firstRing) {
+				throw new IllegalArgumentException("Object " + i + " has no ring");
+			}
+			var shell = createRing(factory, coordinates, pointOffsets.get(firstRing), pointOffsets.get(firstRing + 1));
+			var holes = new LinearRing[lastRing - firstRing - 1];
+			for (int r = 0; r < holes.length; r++) {
+				int ring = firstRing + 1 + r;
+				holes[r] = createRing(factory, coordinates, pointOffsets.get(ring), pointOffsets.get(ring + 1));
+			}
+			var roi = GeometryTools.geometryToROI(factory.createPolygon(shell, holes), plane);
+			int classIndex = classIndices.get(i);
+			var detection = PathObjects.createDetectionObject(roi, classIndex < 0 ? null : pathClasses[classIndex]);
+			if (nMeasurements > 0) {
+				var measurementList = detection.getMeasurementList();
+				for (int m = 0; m < nMeasurements; m++) {
+					measurementList.put(measurementNames.get(m), measurements.get(i * nMeasurements + m));
+				}
+				measurementList.close();
+			}
+			return detection;
+		}).toList();
+
+		hierarchy.addObjects(detections);
+		return detections;
+	}
+
+	private static LinearRing createRing(GeometryFactory factory, DoubleBuffer coordinates, int start, int end) {
+		int n = end - start;
+		if (n <= 0) {
+			throw new IllegalArgumentException("Ring has no point");
+		}
+		boolean closed = coordinates.get(2 * start) == coordinates.get(2 * (end - 1)) &&
+				coordinates.get(2 * start + 1) == coordinates.get(2 * (end - 1) + 1);
+		var ring = new Coordinate[closed ? n : n + 1];
+		for (int p = 0; p < n; p++) {
+			ring[p] = new Coordinate(coordinates.get(2 * (start + p)), coordinates.get(2 * (start + p) + 1));
+		}
+		if (!closed) {
+			ring[n] = ring[0].copy();
+		}
+		return factory.createLinearRing(ring);
+	}
+
+	private static IntBuffer intView(ByteBuffer buffer, int position, int length) {
+		return buffer.slice(position, length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+	private static DoubleBuffer doubleView(ByteBuffer buffer, int position, int length) {
+		return buffer.slice(position, length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+}
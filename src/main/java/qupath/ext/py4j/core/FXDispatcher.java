@@ -0,0 +1,109 @@
+package qupath.ext.py4j.core;
+
+import javafx.application.Platform;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Dispatch tasks to the JavaFX application thread without blocking the caller.
+ *
+ * <p>
+ *     Tasks submitted with a key are coalesced: while a task with the same key is waiting
+ *     to be run on the JavaFX thread, new requests with that key are merged into it
+ *     and share its future. Requests made while the JavaFX thread is busy
+ *     (e.g. many repaints from a Python loop) are therefore run once, on the next pulse.
+ * </p>
+ */
+final class FXDispatcher {
+
+	private static final Map<String, CompletableFuture<Void>> pending = new HashMap<>();
+	private static final LongAdder dispatched = new LongAdder();
+	private static final LongAdder coalesced = new LongAdder();
+
+	private FXDispatcher() {
+	}
+
+	/**
+	 * Run <code>task</code> on the JavaFX application thread.
+	 *
+	 * @param task the task to run
+	 * @return a future completed with the result of the task
+	 * @param <T> the type of the result
+	 */
+	static <T> CompletableFuture<T> runAsync(Callable<T> task) {
+		dispatched.increment();
+		var future = new CompletableFuture<T>();
+		Runnable runnable = () -> {
+			try {
+				future.complete(task.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		};
+		if (Platform.isFxApplicationThread()) {
+			runnable.run();
+		} else {
+			Platform.runLater(runnable);
+		}
+		return future;
+	}
+
+	/**
+	 * Run <code>task</code> on the JavaFX application thread, unless a task with the same
+	 * <code>key</code> is already waiting to be run.
+	 *
+	 * @param key  the key identifying redundant tasks
+	 * @param task the task to run
+	 * @return a future completed once the task (or the task it was merged into) has run
+	 */
+	static CompletableFuture<Void> runCoalesced(String key, Runnable task) {
+		CompletableFuture<Void> future;
+		synchronized (pending) {
+			future = pending.get(key);
+			if (future != null) {
+				coalesced.increment();
+				return future;
+			}
+			future = new CompletableFuture<>();
+			pending.put(key, future);
+		}
+		dispatched.increment();
+		var result = future;
+		Platform.runLater(() -> {
+			// requests made from now on need a new run, as this one may miss their changes
+			synchronized (pending) {
+				pending.remove(key);
+			}
+			try {
+				task.run();
+				result.complete(null);
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Get the number of requests merged into a pending task.
+	 *
+	 * @return the number of coalesced requests
+	 */
+	static long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Get the number of tasks submitted to the JavaFX application thread.
+	 *
+	 * @return the number of dispatched tasks
+	 */
+	static long getDispatchedCount() {
+		return dispatched.sum();
+	}
+}
@@ -0,0 +1,263 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Record call counts, latencies, transferred bytes and in-flight calls of the gateway methods.
+ *
+ * <p>
+ *     Latencies are recorded in a log-linear histogram (as HDR histograms do): each power of two
+ *     is split into {@value #SUB_BUCKETS} buckets, so percentiles are accurate to about 12%
+ *     while recording a call only costs a few atomic increments.
+ * </p>
+ */
+final class GatewayMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(GatewayMetrics.class);
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int N_BUCKETS = 64 * SUB_BUCKETS;
+	private static final String CSV_HEADER = "timestamp,method,calls,errors,inFlight,bytes,meanMillis,p50Millis,p90Millis,p99Millis,maxMillis";
+
+	private static final Map<String, MethodMetrics> metrics = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Boolean> recording = ThreadLocal.withInitial(() -> false);
+	private static volatile boolean enabled = true;
+	private static ScheduledExecutorService dumpExecutor;
+	private static ScheduledFuture<?> dumpTask;
+
+	private GatewayMetrics() {
+	}
+
+	/**
+	 * A call that may throw a checked exception.
+	 *
+	 * @param <T> the type of the result
+	 * @param <E> the type of the exception
+	 */
+	@FunctionalInterface
+	interface Call<T, E extends Exception> {
+		T call() throws E;
+	}
+
+	/**
+	 * Run <code>call</code> and record it under <code>method</code>.
+	 * When the result is a <code>byte[]</code> or a {@link String}, its length is recorded as transferred bytes.
+	 * Only the outermost recorded call of a thread is recorded, so that a gateway method
+	 * calling other instrumented methods is counted once, with the bytes it actually returns.
+	 *
+	 * @param method the name of the method
+	 * @param call   the call to run
+	 * @return the result of the call
+	 * @param <T> the type of the result
+	 * @param <E> the type of the exception thrown by the call
+	 * @throws E if the call fails
+	 */
+	static <T, E extends Exception> T record(String method, Call<T, E> call) throws E {
+		if (!enabled || recording.get()) {
+			return call.call();
+		}
+		var methodMetrics = metrics.computeIfAbsent(method, m -> new MethodMetrics());
+		methodMetrics.inFlight.incrementAndGet();
+		long start = System.nanoTime();
+		boolean success = false;
+		recording.set(true);
+		try {
+			T result = call.call();
+			if (result instanceof byte[] bytes) {
+				methodMetrics.bytes.add(bytes.length);
+			} else if (result instanceof String string) {
+				methodMetrics.bytes.add(string.length());
+			}
+			success = true;
+			return result;
+		} finally {
+			recording.set(false);
+			methodMetrics.record(System.nanoTime() - start, success);
+		}
+	}
+
+	/**
+	 * Enable or disable the recording of metrics.
+	 *
+	 * @param enable true to record metrics
+	 */
+	static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * Remove all recorded metrics.
+	 */
+	static void reset() {
+		metrics.clear();
+	}
+
+	/**
+	 * Get a snapshot of the metrics of all methods, sorted by method name.
+	 *
+	 * @return a map from method name to metrics
+	 */
+	static Map<String, Map<String, Object>> snapshot() {
+		var snapshot = new TreeMap<String, Map<String, Object>>();
+		metrics.forEach((method, methodMetrics) -> snapshot.put(method, methodMetrics.snapshot()));
+		return snapshot;
+	}
+
+	/**
+	 * Periodically write the metrics of all methods, either appended to a CSV file or to the log.
+	 * Any previous periodic dump is stopped.
+	 *
+	 * @param csvPath       the CSV file to append to, or <b>null</b> to write to the log
+	 * @param periodSeconds the period of the dump
+	 */
+	static synchronized void startDump(String csvPath, double periodSeconds) {
+		stopDump();
+		if (dumpExecutor == null) {
+			dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				var thread = new Thread(runnable, "py4j-gateway-metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		long periodMillis = Math.max(1, Math.round(periodSeconds * 1000));
+		Path path = csvPath == null || csvPath.isBlank() ? null : Path.of(csvPath);
+		dumpTask = dumpExecutor.scheduleAtFixedRate(() -> dump(path), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the periodic dump started by {@link #startDump(String, double)}, if any.
+	 */
+	static synchronized void stopDump() {
+		if (dumpTask != null) {
+			dumpTask.cancel(false);
+			dumpTask = null;
+		}
+	}
+
+	private static void dump(Path path) {
+		long timestamp = System.currentTimeMillis();
+		var lines = new StringBuilder();
+		snapshot().forEach((method, values) -> lines.append(timestamp).append(',')
+				.append(method).append(',')
+				.append(values.get("calls")).append(',')
+				.append(values.get("errors")).append(',')
+				.append(values.get("inFlight")).append(',')
+				.append(values.get("bytes")).append(',')
+				.append(values.get("meanMillis")).append(',')
+				.append(values.get("p50Millis")).append(',')
+				.append(values.get("p90Millis")).append(',')
+				.append(values.get("p99Millis")).append(',')
+				.append(values.get("maxMillis")).append('\n'));
+		if (path == null) {
+			if (!lines.isEmpty()) {
+				logger.info("Gateway metrics\n{}\n{}", CSV_HEADER, lines.toString().strip());
+			}
+			return;
+		}
+		try {
+			if (!Files.exists(path)) {
+				lines.insert(0, CSV_HEADER + '\n');
+			}
+			Files.writeString(path, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			logger.warn("Unable to write gateway metrics to {}: {}", path, e.getMessage());
+		}
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) Math.max(nanos, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long bucketUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	private static class MethodMetrics {
+
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLongArray histogram = new AtomicLongArray(N_BUCKETS);
+
+		private void record(long nanos, boolean success) {
+			inFlight.decrementAndGet();
+			calls.increment();
+			if (!success) {
+				errors.increment();
+			}
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			histogram.incrementAndGet(bucket(nanos));
+		}
+
+		private Map<String, Object> snapshot() {
+			var counts = new long[N_BUCKETS];
+			long total = 0;
+			for (int i = 0; i < N_BUCKETS; i++) {
+				counts[i] = histogram.get(i);
+				total += counts[i];
+			}
+			var values = new LinkedHashMap<String, Object>();
+			values.put("calls", calls.sum());
+			values.put("errors", errors.sum());
+			values.put("inFlight", inFlight.get());
+			values.put("bytes", bytes.sum());
+			values.put("meanMillis", total == 0 ? 0.0 : totalNanos.sum() / 1e6 / total);
+			values.put("p50Millis", percentile(counts, total, 0.50));
+			values.put("p90Millis", percentile(counts, total, 0.90));
+			values.put("p99Millis", percentile(counts, total, 0.99));
+			values.put("p999Millis", percentile(counts, total, 0.999));
+			values.put("maxMillis", maxNanos.get() / 1e6);
+			return values;
+		}
+
+		private double percentile(long[] counts, long total, double quantile) {
+			if (total == 0) {
+				return 0.0;
+			}
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(bucketUpperBound(i), maxNanos.get()) / 1e6;
+				}
+			}
+			return maxNanos.get() / 1e6;
+		}
+	}
+}
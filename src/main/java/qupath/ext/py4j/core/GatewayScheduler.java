@@ -0,0 +1,253 @@
+package qupath.ext.py4j.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Share the heavy gateway calls (pixel reads, exports, imports...) fairly between clients.
+ *
+ * <p>
+ *     Py4J runs the calls of each connection on its own thread, so calls of different clients
+ *     already run concurrently. Without limits however, a client sending many heavy calls
+ *     from several threads takes all processors and I/O, and the calls of the other clients wait.
+ *     A heavy call therefore first takes a permit of its client, which bounds the number of
+ *     heavy calls a client runs at the same time, then a permit of a global fair semaphore,
+ *     which bounds the total number of heavy calls and admits waiting calls in arrival order.
+ * </p>
+ * <p>
+ *     A client is identified by the id set with {@link #setClientId(String)} on the thread of its connection.
+ *     Py4J serves each Python thread on its own connection, and a Python process may use several of them,
+ *     so connections without an id all share the {@link #DEFAULT_CLIENT_ID default} client rather than each
+ *     one getting its own quota. A client is forgotten as soon as it has no running nor waiting heavy call,
+ *     so ids that are not used anymore do not accumulate. Heavy calls made on the same thread while running
+ *     a heavy call reuse the permits of the outer call. Admission is tracked per thread, so work the
+ *     outer call hands to other threads (e.g. a pool reading regions) must not go through this scheduler
+ *     again: it would wait for permits held by the outer call, which waits for it.
+ * </p>
+ */
+final class GatewayScheduler {
+
+	/**
+	 * Id of the client of connections that did not set one.
+	 */
+	static final String DEFAULT_CLIENT_ID = "default";
+
+	private static final ThreadLocal<String> clientId = new ThreadLocal<>();
+	private static final ThreadLocal<Boolean> admitted = ThreadLocal.withInitial(() -> false);
+	private static final Map<String, Client> clients = new ConcurrentHashMap<>();
+	private static volatile Semaphore global = null;
+	private static volatile int maxConcurrentCalls = 0;
+	private static volatile int clientQuota = 0;
+
+	private GatewayScheduler() {
+	}
+
+	/**
+	 * Set the limits of concurrent heavy calls. The limits apply to calls started afterwards.
+	 *
+	 * @param maxConcurrent the maximum number of heavy calls of all clients running at the same time,
+	 *                      or a value &lt;= 0 for no limit
+	 * @param quota         the maximum number of heavy calls of a single client running at the same time,
+	 *                      or a value &lt;= 0 for no limit
+	 */
+	static synchronized void configure(int maxConcurrent, int quota) {
+		maxConcurrentCalls = Math.max(maxConcurrent, 0);
+		clientQuota = Math.max(quota, 0);
+		global = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+		clients.clear();
+	}
+
+	/**
+	 * Set the id of the client calling from the current thread.
+	 *
+	 * @param id the id of the client, or <b>null</b> to use the {@link #DEFAULT_CLIENT_ID default} client
+	 */
+	static void setClientId(String id) {
+		if (id == null) {
+			clientId.remove();
+		} else {
+			clientId.set(id);
+		}
+	}
+
+	/**
+	 * Get the id of the client calling from the current thread.
+	 *
+	 * @return the id set by {@link #setClientId(String)}, or {@link #DEFAULT_CLIENT_ID}
+	 */
+	static String getClientId() {
+		var id = clientId.get();
+		return id == null ? DEFAULT_CLIENT_ID : id;
+	}
+
+	/**
+	 * Run heavy call <code>call</code> once the quota of the calling client and the global limit allow it,
+	 * and record it in {@link GatewayMetrics} under <code>method</code>.
+	 *
+	 * @param method the name of the method
+	 * @param call   the call to run
+	 * @return the result of the call
+	 * @param <T> the type of the result
+	 * @param <E> the type of the exception thrown by the call
+	 * @throws E if the call fails
+	 */
+	static <T, E extends Exception> T run(String method, GatewayMetrics.Call<T, E> call) throws E {
+		if (admitted.get() || !isEnabled()) {
+			return GatewayMetrics.record(method, call);
+		}
+		var admission = GatewayMetrics.record(method + " (queued)", () -> admit(getClientId()));
+		admitted.set(true);
+		try {
+			return GatewayMetrics.record(method, call);
+		} finally {
+			admitted.set(false);
+			admission.release();
+		}
+	}
+
+	private static boolean isEnabled() {
+		return global != null || clientQuota > 0;
+	}
+
+	/**
+	 * Wait until client <code>id</code> may run one more heavy call, and take the permits of that call.
+	 * Unlike {@link #run(String, GatewayMetrics.Call)}, the permits are not tied to the current thread:
+	 * they can be handed to work running on another thread (e.g. a region read ahead for a client),
+	 * which releases them once done. Calls made while holding them still go through the scheduler.
+	 *
+	 * @param id the id of the client the call is made for
+	 * @return the taken permits, to be released once the call is done
+	 * @throws IllegalStateException if interrupted while waiting
+	 */
+	static Admission admit(String id) {
+		if (!isEnabled()) {
+			return Admission.NONE;
+		}
+		var globalSemaphore = global;
+		// registered while holding the lock of the map, so that the client can't be forgotten meanwhile
+		var client = clients.compute(id, (key, existing) -> {
+			var result = existing == null ? new Client(clientQuota) : existing;
+			result.waiting.incrementAndGet();
+			return result;
+		});
+		boolean permitted = false;
+		try {
+			acquire(client.permits);
+			try {
+				acquire(globalSemaphore);
+			} catch (RuntimeException e) {
+				client.release();
+				throw e;
+			}
+			client.running.incrementAndGet();
+			permitted = true;
+		} finally {
+			client.waiting.decrementAndGet();
+			if (!permitted) {
+				forgetIfIdle(id, client);
+			}
+		}
+		return new Admission(id, client, globalSemaphore);
+	}
+
+	/**
+	 * Permits taken by {@link #admit(String)} for one heavy call.
+	 */
+	static final class Admission {
+
+		private static final Admission NONE = new Admission(null, null, null);
+
+		private final String id;
+		private final Client client;
+		private final Semaphore globalSemaphore;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		private Admission(String id, Client client, Semaphore globalSemaphore) {
+			this.id = id;
+			this.client = client;
+			this.globalSemaphore = globalSemaphore;
+		}
+
+		/**
+		 * Release the permits. Releasing them again does nothing.
+		 */
+		void release() {
+			if (client == null || !released.compareAndSet(false, true)) {
+				return;
+			}
+			client.running.decrementAndGet();
+			client.completed.increment();
+			if (globalSemaphore != null) {
+				globalSemaphore.release();
+			}
+			client.release();
+			forgetIfIdle(id, client);
+		}
+	}
+
+	/**
+	 * Remove <code>client</code> once it has no running nor waiting call, i.e. once all its permits are free.
+	 */
+	private static void forgetIfIdle(String id, Client client) {
+		clients.computeIfPresent(id, (key, existing) ->
+				existing == client && existing.running.get() == 0 && existing.waiting.get() == 0 ? null : existing);
+	}
+
+	private static void acquire(Semaphore semaphore) {
+		if (semaphore == null) {
+			return;
+		}
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for other gateway calls", e);
+		}
+	}
+
+	/**
+	 * Get the state of the scheduler.
+	 *
+	 * @return a map with the limits, the number of global permits available and, for each client with
+	 *         running or waiting calls, its number of <code>running</code>, <code>waiting</code> and
+	 *         <code>completed</code> heavy calls (since it last became active)
+	 */
+	static Map<String, Object> getStatistics() {
+		var statistics = new TreeMap<String, Object>();
+		var globalSemaphore = global;
+		statistics.put("maxConcurrentCalls", maxConcurrentCalls);
+		statistics.put("clientQuota", clientQuota);
+		statistics.put("availablePermits", globalSemaphore == null ? -1 : globalSemaphore.availablePermits());
+		var clientStatistics = new TreeMap<String, Map<String, Long>>();
+		clients.forEach((id, client) -> clientStatistics.put(id, Map.of(
+				"running", (long) client.running.get(),
+				"waiting", (long) client.waiting.get(),
+				"completed", client.completed.sum())));
+		statistics.put("clients", clientStatistics);
+		return statistics;
+	}
+
+	private static class Client {
+
+		private final Semaphore permits;
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger waiting = new AtomicInteger();
+		private final LongAdder completed = new LongAdder();
+
+		private Client(int quota) {
+			permits = quota > 0 ? new Semaphore(quota, true) : null;
+		}
+
+		private void release() {
+			if (permits != null) {
+				permits.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package qupath.ext.py4j.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+import qupath.lib.io.GsonTools;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Write objects as GeoJSON features one at a time, without building the whole GeoJSON in memory.
+ *
+ * <p>
+ *     Features can either be written to a file as a <code>FeatureCollection</code>
+ *     (see {@link #write(Iterator, Path, boolean, int)}), or pulled in chunks
+ *     with {@link #nextChunk(int)}, each chunk being a JSON array of features.
+ * </p>
+ * <p>
+ *     When a precision &gt;= 0 is given, the coordinates of the geometries are rounded
+ *     to that number of decimals, which reduces the size of the output.
+ * </p>
+ */
+public class GeoJsonStream {
+
+	private static final String[] GEOMETRY_MEMBERS = {"geometry", "nucleusGeometry"};
+
+	private final Iterator<? extends PathObject> iterator;
+	private final int precision;
+	private final double scale;
+	private final Gson gson = GsonTools.getInstance();
+	private long count = 0;
+
+	GeoJsonStream(Iterator<? extends PathObject> iterator, int precision) {
+		this.iterator = iterator;
+		this.precision = precision;
+		this.scale = Math.pow(10, Math.max(precision, 0));
+	}
+
+	/**
+	 * Iterate over all objects of <code>hierarchy</code> (except the root object),
+	 * walking the hierarchy depth-first instead of collecting all objects first.
+	 *
+	 * @param hierarchy the hierarchy to walk
+	 * @return an iterator over the objects of the hierarchy
+	 */
+	static Iterator<PathObject> iterate(PathObjectHierarchy hierarchy) {
+		return new Iterator<>() {
+			private final Deque<Iterator<PathObject>> stack = new ArrayDeque<>(
+					List.of(Arrays.asList(hierarchy.getRootObject().getChildObjectsAsArray()).iterator()));
+
+			@Override
+			public boolean hasNext() {
+				while (!stack.isEmpty() && !stack.peek().hasNext()) {
+					stack.pop();
+				}
+				return !stack.isEmpty();
+			}
+
+			@Override
+			public PathObject next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				var pathObject = stack.peek().next();
+				if (pathObject.hasChildObjects()) {
+					stack.push(Arrays.asList(pathObject.getChildObjectsAsArray()).iterator());
+				}
+				return pathObject;
+			}
+		};
+	}
+
+	/**
+	 * Write the objects of <code>iterator</code> to file <code>path</code> as a GeoJSON <code>FeatureCollection</code>.
+	 *
+	 * @param iterator  the objects to write
+	 * @param path      the file to write, which is overwritten
+	 * @param gzip      true to compress the file with gzip
+	 * @param precision the number of decimals of the coordinates, or a negative value to keep them unchanged
+	 * @return the number of written features
+	 * @throws IOException if an error occurs while writing the file
+	 */
+	static long write(Iterator<? extends PathObject> iterator, Path path, boolean gzip, int precision) throws IOException {
+		var stream = new GeoJsonStream(iterator, precision);
+		// the file is a resource of its own, so it is closed even if the gzip stream cannot be created
+		try (var file = Files.newOutputStream(path);
+				OutputStream output = gzip ? new GZIPOutputStream(file, 1 << 16) : file;
+				Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+				var jsonWriter = new JsonWriter(writer)) {
+			jsonWriter.beginObject();
+			jsonWriter.name("type").value("FeatureCollection");
+			jsonWriter.name("features");
+			jsonWriter.beginArray();
+			while (iterator.hasNext()) {
+				stream.writeFeature(iterator.next(), jsonWriter);
+			}
+			jsonWriter.endArray();
+			jsonWriter.endObject();
+		}
+		return stream.count;
+	}
+
+	/**
+	 * Check if some objects have not been returned yet.
+	 *
+	 * @return true if {@link #nextChunk(int)} can return more features
+	 */
+	public synchronized boolean hasNext() {
+		return iterator.hasNext();
+	}
+
+	/**
+	 * Get the number of features returned so far.
+	 *
+	 * @return the number of features
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Return the next <code>maxFeatures</code> objects (or fewer at the end of the stream)
+	 * as a JSON array of GeoJSON features.
+	 *
+	 * @param maxFeatures the maximum number of features to return
+	 * @return the JSON array of features, which is empty once the stream is exhausted
+	 * @throws IOException if an error occurs while writing the features
+	 */
+	public synchronized String nextChunk(int maxFeatures) throws IOException {
+		return GatewayScheduler.run("GeoJsonStream.nextChunk", () -> writeChunk(maxFeatures));
+	}
+
+	/**
+	 * Same as {@link #nextChunk(int)}, without going through the {@link GatewayScheduler},
+	 * for callers that were already admitted.
+	 */
+	synchronized String writeChunk(int maxFeatures) throws IOException {
+		var writer = new StringWriter();
+		try (var jsonWriter = new JsonWriter(writer)) {
+			jsonWriter.beginArray();
+			for (int i = 0; i < maxFeatures && iterator.hasNext(); i++) {
+				writeFeature(iterator.next(), jsonWriter);
+			}
+			jsonWriter.endArray();
+		}
+		return writer.toString();
+	}
+
+	private void writeFeature(PathObject pathObject, JsonWriter jsonWriter) throws IOException {
+		var feature = gson.toJsonTree(pathObject);
+		if (precision >= 0 && feature.isJsonObject()) {
+			for (var member : GEOMETRY_MEMBERS) {
+				var geometry = feature.getAsJsonObject().get(member);
+				if (geometry != null && geometry.isJsonObject()) {
+					var coordinates = geometry.getAsJsonObject().get("coordinates");
+					if (coordinates != null) {
+						geometry.getAsJsonObject().add("coordinates", round(coordinates));
+					}
+				}
+			}
+		}
+		gson.toJson(feature, jsonWriter);
+		count++;
+	}
+
+	private JsonElement round(JsonElement element) {
+		if (element.isJsonArray()) {
+			var rounded = new JsonArray(element.getAsJsonArray().size());
+			for (var child : element.getAsJsonArray()) {
+				rounded.add(round(child));
+			}
+			return rounded;
+		}
+		if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isNumber()) {
+			return new JsonPrimitive(Math.round(element.getAsDouble() * scale) / scale);
+		}
+		return element;
+	}
+
+	/**
+	 * Create a stream over <code>pathObjects</code>.
+	 *
+	 * @param pathObjects the objects to stream
+	 * @param precision   the number of decimals of the coordinates, or a negative value to keep them unchanged
+	 * @return the stream
+	 */
+	static GeoJsonStream of(Collection<? extends PathObject> pathObjects, int precision) {
+		return new GeoJsonStream(pathObjects.iterator(), precision);
+	}
+}
@@ -0,0 +1,193 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Save {@link ImageData} to project entries in the background.
+ *
+ * <p>
+ *     Each entry has a single writer: saves of the same entry never run concurrently,
+ *     and a save requested while another one is waiting replaces it (only the latest image data is written).
+ *     Saves of image data whose hierarchy has not changed since the last save
+ *     (as tracked by a hierarchy listener) and which are not marked as changed are skipped;
+ *     a save that does run still rewrites the whole image data, including the whole hierarchy.
+ *     Hierarchies are tracked through weak references only, so tracking does not keep
+ *     image data in memory once the caller releases them.
+ * </p>
+ * <p>
+ *     The caller may keep changing the hierarchy while it is saved in the background:
+ *     the save holds the lock of the hierarchy, which QuPath also takes while changing it,
+ *     so changes wait for the save to end rather than being written half-done.
+ * </p>
+ */
+final class ImageDataSaveQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageDataSaveQueue.class);
+
+	private static final ImageDataSaveQueue INSTANCE = new ImageDataSaveQueue();
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(2, runnable -> {
+		var thread = new Thread(runnable, "py4j-image-data-saver");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<ProjectImageEntry<BufferedImage>, ImageData<BufferedImage>> pending = new HashMap<>();
+	// listeners only reference the flag, so the hierarchy (the weak key) is not kept alive by its value
+	private final Map<PathObjectHierarchy, AtomicBoolean> dirty = new WeakHashMap<>();
+	private final List<String> errors = new ArrayList<>();
+	private final LongAdder saved = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder superseded = new LongAdder();
+	private int outstanding = 0;
+
+	private ImageDataSaveQueue() {
+	}
+
+	/**
+	 * Get the queue shared by all gateway clients.
+	 *
+	 * @return the shared queue
+	 */
+	static ImageDataSaveQueue getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Start tracking changes of the hierarchy of <code>imageData</code>, if not already done.
+	 * Image data that were not tracked yet, or that are marked as changed, are considered as dirty.
+	 * The listener stays attached to the hierarchy, and is collected with it.
+	 */
+	private AtomicBoolean track(ImageData<BufferedImage> imageData) {
+		var hierarchy = imageData.getHierarchy();
+		var flag = dirty.get(hierarchy);
+		if (flag == null) {
+			var newFlag = new AtomicBoolean(true);
+			hierarchy.addListener(event -> newFlag.set(true));
+			dirty.put(hierarchy, newFlag);
+			flag = newFlag;
+		}
+		if (imageData.isChanged()) {
+			flag.set(true);
+		}
+		return flag;
+	}
+
+	/**
+	 * Request <code>imageData</code> to be saved to <code>entry</code>.
+	 *
+	 * @param entry     the entry to save to
+	 * @param imageData the image data to save
+	 */
+	synchronized void submit(ProjectImageEntry<BufferedImage> entry, ImageData<BufferedImage> imageData) {
+		track(imageData);
+		if (pending.containsKey(entry)) {
+			// a writer is already scheduled for this entry and will pick up the latest image data
+			if (pending.put(entry, imageData) != null) {
+				superseded.increment();
+			}
+			return;
+		}
+		pending.put(entry, imageData);
+		outstanding++;
+		pool.execute(() -> write(entry));
+	}
+
+	private void write(ProjectImageEntry<BufferedImage> entry) {
+		ImageData<BufferedImage> imageData;
+		AtomicBoolean flag;
+		synchronized (this) {
+			imageData = pending.get(entry);
+			flag = track(imageData);
+			// keep the entry in the map while saving with a null value, so that new
+			// requests are queued behind this save instead of running concurrently
+			pending.put(entry, null);
+		}
+		try {
+			boolean save;
+			synchronized (imageData.getHierarchy()) {
+				save = flag.getAndSet(false) || imageData.isChanged();
+				if (save) {
+					entry.saveImageData(imageData);
+				}
+			}
+			if (save) {
+				saved.increment();
+			} else {
+				skipped.increment();
+			}
+		} catch (IOException | RuntimeException e) {
+			flag.set(true);
+			logger.warn("Unable to save image data of {}: {}", entry.getImageName(), e.getMessage());
+			synchronized (this) {
+				errors.add(entry.getImageName() + ": " + e.getMessage());
+			}
+		} finally {
+			synchronized (this) {
+				if (pending.get(entry) != null) {
+					// a newer save was requested while writing
+					pool.execute(() -> write(entry));
+				} else {
+					pending.remove(entry);
+					outstanding--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait for all requested saves to be done.
+	 *
+	 * @throws IOException if some saves failed since the last flush
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void flush() throws IOException, InterruptedException {
+		while (outstanding > 0) {
+			wait();
+		}
+		if (!errors.isEmpty()) {
+			var message = String.join("\n", errors);
+			errors.clear();
+			throw new IOException("Unable to save image data:\n" + message);
+		}
+	}
+
+	/**
+	 * Get the number of entries with a save waiting or running.
+	 *
+	 * @return the number of pending saves
+	 */
+	synchronized int getPendingCount() {
+		return outstanding;
+	}
+
+	/**
+	 * Get the counters of this queue.
+	 *
+	 * @return a map with the number of <code>saved</code>, <code>skipped</code> and <code>superseded</code> saves
+	 */
+	Map<String, Long> getStatistics() {
+		var statistics = new HashMap<String, Long>();
+		statistics.put("saved", saved.sum());
+		statistics.put("skipped", skipped.sum());
+		statistics.put("superseded", superseded.sum());
+		return statistics;
+	}
+}
@@ -0,0 +1,159 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.gui.commands.ProjectCommands;
+import qupath.lib.gui.tools.GuiTools;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Import images into a {@link Project}.
+ *
+ * <p>
+ *     The thumbnail of each image is read once: the same raster is used to estimate
+ *     the image type and to render the RGB thumbnail of the project entry. As before, the type is
+ *     estimated from the first z-slice while the entry thumbnail shows the middle z-slice (as rendered
+ *     by {@link ProjectCommands#getThumbnailRGB}), so z-stacks have a second thumbnail read.
+ * </p>
+ * <p>
+ *     Many images can be imported in parallel: opening the image servers, reading the thumbnails
+ *     and estimating the image types are done by a pool of workers. Entries are added to the project
+ *     one at a time (while holding the project lock), and the project is synchronized once at the end.
+ * </p>
+ */
+final class ImageImporter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageImporter.class);
+
+	private ImageImporter() {
+	}
+
+	/**
+	 * Import all <code>imagePaths</code> into <code>project</code>.
+	 *
+	 * @param project    the project to add the image entries to
+	 * @param imagePaths the image files to import
+	 * @param nThreads   the number of workers, or a value &lt;= 0 to use the number of processors
+	 * @return the result of each import, in the order of <code>imagePaths</code>
+	 * @throws IOException if an error occurs while synchronizing the project
+	 */
+	static List<ImportResult> importImages(
+			Project<BufferedImage> project,
+			List<String> imagePaths,
+			int nThreads) throws IOException {
+		int n = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(n, imagePaths.size())));
+		try {
+			var futures = new ArrayList<Future<ImportResult>>(imagePaths.size());
+			for (var imagePath : imagePaths) {
+				futures.add(pool.submit(() -> tryImportImage(project, imagePath)));
+			}
+			var results = new ArrayList<ImportResult>(futures.size());
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					results.add(ImportResult.failure(imagePaths.get(i), e.getCause()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while importing images", e);
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+			project.syncChanges();
+		}
+	}
+
+	private static ImportResult tryImportImage(Project<BufferedImage> project, String imagePath) {
+		try {
+			return importImage(project, imagePath);
+		} catch (Exception e) {
+			logger.warn("Unable to import {}: {}", imagePath, e.getMessage());
+			logger.debug(e.getMessage(), e);
+			return ImportResult.failure(imagePath, e);
+		}
+	}
+
+	/**
+	 * Open image file <code>imagePath</code>, add it to <code>project</code> and close it.
+	 *
+	 * @param project   the project to add the image entry to
+	 * @param imagePath the image file to import
+	 * @return the result of the import
+	 * @throws Exception if the image cannot be opened or added to the project
+	 */
+	static ImportResult importImage(Project<BufferedImage> project, String imagePath) throws Exception {
+		long start = System.nanoTime();
+		// the entry only keeps the server builder, so the server can be closed once imported
+		try (var server = QuPathEZ.createImageServer(imagePath)) {
+			return importImage(project, server, imagePath, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Add image <code>server</code> to <code>project</code>, reading its thumbnail only once.
+	 *
+	 * @param project   the project to add the image entry to
+	 * @param server    the image server used to create the image entry
+	 * @param imagePath the path reported in the result
+	 * @param openNanos the time spent opening <code>server</code>, reported in the result
+	 * @return the result of the import, which is a failure if <code>project</code> did not add the image
+	 * @throws IOException if the thumbnail cannot be read or the entry cannot be written to the project
+	 */
+	static ImportResult importImage(
+			Project<BufferedImage> project,
+			ImageServer<BufferedImage> server,
+			String imagePath,
+			long openNanos) throws IOException {
+		var timings = new long[ImportResult.N_STEPS];
+		timings[ImportResult.STEP_OPEN] = openNanos;
+
+		long start = System.nanoTime();
+		var thumbnail = server.getDefaultThumbnail(0, 0);
+		int zThumbnail = server.nZSlices() / 2;
+		var renderedThumbnail = zThumbnail == 0 ? thumbnail : server.getDefaultThumbnail(zThumbnail, 0);
+		timings[ImportResult.STEP_READ_THUMBNAIL] = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		var type = GuiTools.estimateImageType(server, thumbnail);
+		timings[ImportResult.STEP_ESTIMATE_TYPE] = System.nanoTime() - start;
+
+		// render from an in-memory server wrapping the thumbnail, so the rendering rules
+		// of ProjectCommands are kept without reading the image again; its own id keeps its
+		// regions apart from the ones of the real server in caches keyed by server path
+		start = System.nanoTime();
+		var wrapped = new WrappedBufferedImageServer(server.getPath() + "#thumbnail", renderedThumbnail,
+				server.getMetadata().getChannels());
+		var thumbnailRGB = ProjectCommands.getThumbnailRGB(wrapped);
+		timings[ImportResult.STEP_RENDER_THUMBNAIL] = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		ProjectImageEntry<BufferedImage> entry;
+		synchronized (project) {
+			entry = ProjectCommands.addSingleImageToProject(project, server, type);
+		}
+		if (entry == null) {
+			// reported like any other failure, so that a single import can still return a null entry
+			return ImportResult.failure(imagePath, new IOException("Unable to add " + imagePath + " to the project"));
+		}
+		entry.setThumbnail(thumbnailRGB);
+		timings[ImportResult.STEP_ADD_ENTRY] = System.nanoTime() - start;
+
+		return ImportResult.success(imagePath, entry, timings);
+	}
+}
@@ -0,0 +1,209 @@
+package qupath.ext.py4j.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.io.GsonTools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Write and read JSON descriptors of {@link ImageServer}s that can be reopened without trying all readers.
+ *
+ * <p>
+ *     A descriptor holds the {@link ServerBuilder} of the server, which names the reader that opened it,
+ *     its {@link ImageServerMetadata} including the resolutions of its pyramid, and the size and last
+ *     modification time of its image files. JSON files holding only an image server serialized by
+ *     {@link GsonTools}, as written by older versions, can still be read.
+ * </p>
+ * <p>
+ *     Reading a descriptor builds the server with its recorded builder, so the reader that opened it is used
+ *     directly instead of probing all readers. The reader still parses the metadata of the image; the recorded
+ *     metadata (e.g. pixel sizes or channel names set by the user) is then set over it. When an image file changed
+ *     since the descriptor was written, the server is still built with its recorded builder (keeping its reader
+ *     arguments and transforms) but the recorded metadata is ignored, and the descriptor is rewritten.
+ * </p>
+ */
+final class ImageServerDescriptor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageServerDescriptor.class);
+
+	private static final String KEY_BUILDER = "builder";
+	private static final String KEY_METADATA = "metadata";
+	private static final String KEY_FILES = "files";
+	private static final String KEY_URI = "uri";
+	private static final String KEY_SIZE = "size";
+	private static final String KEY_LAST_MODIFIED = "lastModified";
+
+	private ImageServerDescriptor() {
+	}
+
+	/**
+	 * Write the descriptor of <code>server</code> to <code>path</code>.
+	 * The file is replaced at once, so that concurrent readers never see a partial descriptor.
+	 *
+	 * @param server the server to describe
+	 * @param path   the path of the descriptor
+	 * @throws IOException if the descriptor cannot be written
+	 */
+	static void write(ImageServer<BufferedImage> server, Path path) throws IOException {
+		var gson = GsonTools.getInstance();
+		var descriptor = new JsonObject();
+		descriptor.add(KEY_BUILDER, gson.toJsonTree(server.getBuilder()));
+		descriptor.add(KEY_METADATA, gson.toJsonTree(server.getMetadata()));
+		descriptor.add(KEY_FILES, describeFiles(server.getURIs()));
+
+		var absolutePath = path.toAbsolutePath();
+		var temp = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+		try {
+			Files.writeString(temp, gson.toJson(descriptor), StandardCharsets.UTF_8);
+			Files.move(temp, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Open the server described by the descriptor at <code>path</code>.
+	 *
+	 * @param path the path of the descriptor
+	 * @return the opened server
+	 * @throws Exception if the descriptor cannot be read or the server cannot be opened
+	 */
+	@SuppressWarnings("unchecked")
+	static ImageServer<BufferedImage> read(Path path) throws Exception {
+		var gson = GsonTools.getInstance();
+		var descriptor = JsonParser.parseString(Files.readString(path, StandardCharsets.UTF_8)).getAsJsonObject();
+		if (!descriptor.has(KEY_BUILDER) || !descriptor.has(KEY_FILES)) {
+			// older files hold a serialized server, whose files are trusted as QuPath does for project entries
+			return (ImageServer<BufferedImage>) gson.fromJson(descriptor, ImageServer.class);
+		}
+		var builder = (ServerBuilder<BufferedImage>) gson.fromJson(descriptor.get(KEY_BUILDER), ServerBuilder.class);
+
+		var server = builder.build();
+		if (!isUpToDate(descriptor.getAsJsonArray(KEY_FILES))) {
+			logger.debug("Image files of {} changed, ignoring its recorded metadata", path);
+			update(server, path);
+			return server;
+		}
+		try {
+			server.setMetadata(gson.fromJson(descriptor.get(KEY_METADATA), ImageServerMetadata.class));
+		} catch (IllegalArgumentException e) {
+			// the recorded metadata does not match the image anymore: keep the metadata read from the image
+			logger.debug("Metadata of {} does not match its image, ignoring it", path, e);
+			update(server, path);
+		}
+		return server;
+	}
+
+	/**
+	 * Open the servers described by all descriptors at <code>paths</code>.
+	 *
+	 * @param paths    the paths of the descriptors
+	 * @param nThreads the number of servers opened at the same time, or a value &lt;= 0 to use the number of processors
+	 * @return the opened servers, in the order of <code>paths</code>, with <b>null</b> for the ones that could not be opened
+	 * @throws InterruptedException if interrupted while waiting for the servers to be opened
+	 */
+	static List<ImageServer<BufferedImage>> readAll(List<String> paths, int nThreads) throws InterruptedException {
+		int n = nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(n, paths.size())), runnable -> {
+			var thread = new Thread(runnable, "py4j-server-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			var futures = new ArrayList<Future<ImageServer<BufferedImage>>>(paths.size());
+			for (var path : paths) {
+				futures.add(pool.submit(() -> read(Path.of(path))));
+			}
+			var servers = new ArrayList<ImageServer<BufferedImage>>(futures.size());
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					servers.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					logger.warn("Unable to load image server {}: {}", paths.get(i), e.getCause().getMessage());
+					logger.debug(e.getMessage(), e);
+					servers.add(null);
+				}
+			}
+			return servers;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Rewrite the descriptor at <code>path</code> from <code>server</code>, built with the recorded builder,
+	 * so that the files and metadata it records match the image again.
+	 */
+	private static void update(ImageServer<BufferedImage> server, Path path) {
+		try {
+			write(server, path);
+		} catch (IOException e) {
+			logger.warn("Unable to update image server descriptor {}: {}", path, e.getMessage());
+		}
+	}
+
+	/**
+	 * Describe the local files among <code>uris</code> by their size and last modification time.
+	 *
+	 * @param uris the URIs of the image files
+	 * @return the descriptions of the local files
+	 * @throws IOException if a local file cannot be read
+	 */
+	static JsonArray describeFiles(Collection<URI> uris) throws IOException {
+		var files = new JsonArray();
+		for (var uri : uris) {
+			if (!"file".equals(uri.getScheme())) {
+				continue;
+			}
+			var filePath = Path.of(uri);
+			var file = new JsonObject();
+			file.addProperty(KEY_URI, uri.toString());
+			file.addProperty(KEY_SIZE, Files.size(filePath));
+			file.addProperty(KEY_LAST_MODIFIED, Files.getLastModifiedTime(filePath).toMillis());
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * Check if all <code>files</code> still exist with the recorded size and last modification time.
+	 *
+	 * @param files the descriptions of the files, as returned by {@link #describeFiles(Collection)}
+	 * @return true if no file changed
+	 * @throws IOException if a file cannot be read
+	 */
+	static boolean isUpToDate(JsonArray files) throws IOException {
+		for (JsonElement element : files) {
+			var file = element.getAsJsonObject();
+			var filePath = Path.of(URI.create(file.get(KEY_URI).getAsString()));
+			if (!Files.exists(filePath) ||
+					Files.size(filePath) != file.get(KEY_SIZE).getAsLong() ||
+					Files.getLastModifiedTime(filePath).toMillis() != file.get(KEY_LAST_MODIFIED).getAsLong()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,299 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.servers.ImageServer;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Share opened {@link ImageServer image servers} between gateway calls.
+ *
+ * <p>
+ *     Servers are keyed by the builder used to open them and their URI. Acquiring a server
+ *     that is already open returns the same instance and increments its reference count;
+ *     releasing it decrements the count. A server that is not used anymore stays open
+ *     for an idle timeout, so that opening it again is immediate, and is then closed.
+ * </p>
+ * <p>
+ *     When opening a server would exceed the maximum number of open servers, the least recently
+ *     released idle servers are closed first. Servers in use are never closed, so the maximum
+ *     can be exceeded while more servers than that are in use at the same time.
+ * </p>
+ */
+final class ImageServerPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageServerPool.class);
+
+	/**
+	 * Default maximum number of open servers.
+	 */
+	static final int DEFAULT_MAX_OPEN_SERVERS = 32;
+	/**
+	 * Default time an unused server stays open, in milliseconds.
+	 */
+	static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+	private static final ImageServerPool INSTANCE = new ImageServerPool();
+
+	private final Map<String, Entry> entries = new HashMap<>();
+	private final Map<ImageServer<BufferedImage>, Entry> entriesByServer = new IdentityHashMap<>();
+	private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		var thread = new Thread(runnable, "py4j-image-server-pool");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private ScheduledFuture<?> sweepTask;
+	private int maxOpenServers = DEFAULT_MAX_OPEN_SERVERS;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Open an image server.
+	 */
+	@FunctionalInterface
+	interface Opener {
+		ImageServer<BufferedImage> open() throws Exception;
+	}
+
+	private ImageServerPool() {
+		scheduleSweep();
+	}
+
+	/**
+	 * Get the pool shared by all gateway clients.
+	 *
+	 * @return the shared pool
+	 */
+	static ImageServerPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get the server of <code>key</code>, opening it with <code>opener</code> if it is not open,
+	 * and increment its reference count.
+	 * Concurrent calls with the same key open the server only once.
+	 *
+	 * @param key    the key of the server, made of the builder and the URI
+	 * @param opener the function opening the server if needed
+	 * @return the shared server, to be released with {@link #release(ImageServer)}
+	 * @throws Exception if the server cannot be opened
+	 */
+	ImageServer<BufferedImage> acquire(String key, Opener opener) throws Exception {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				misses++;
+				entry = new Entry(key);
+				entries.put(key, entry);
+			} else {
+				hits++;
+			}
+			entry.references++;
+		}
+		List<ImageServer<BufferedImage>> evicted = List.of();
+		try {
+			synchronized (entry) {
+				if (entry.server == null) {
+					try {
+						var server = opener.open();
+						synchronized (this) {
+							entry.server = server;
+							entriesByServer.put(server, entry);
+							evicted = evictIdle(maxOpenServers);
+						}
+					} catch (Exception e) {
+						synchronized (this) {
+							if (--entry.references == 0) {
+								entries.remove(key);
+							}
+						}
+						throw e;
+					}
+				}
+				return entry.server;
+			}
+		} finally {
+			close(evicted);
+		}
+	}
+
+	/**
+	 * Decrement the reference count of <code>server</code>. It is closed once it has been unused
+	 * for the idle timeout, or earlier if other servers need to be opened.
+	 *
+	 * @param server the server returned by {@link #acquire(String, Opener)}
+	 * @return true if <code>server</code> belongs to this pool, false otherwise
+	 */
+	boolean release(ImageServer<BufferedImage> server) {
+		ImageServer<BufferedImage> evicted = null;
+		synchronized (this) {
+			var entry = entriesByServer.get(server);
+			if (entry == null || entry.references == 0) {
+				return false;
+			}
+			if (--entry.references == 0) {
+				entry.releasedNanos = System.nanoTime();
+				if (idleTimeoutMillis == 0) {
+					evicted = evict(entry);
+				}
+			}
+		}
+		if (evicted != null) {
+			close(List.of(evicted));
+		}
+		return true;
+	}
+
+	/**
+	 * Set the limits of this pool, and close the servers exceeding them.
+	 *
+	 * @param maxOpen           the maximum number of open servers
+	 * @param idleTimeoutMillis the time an unused server stays open, in milliseconds
+	 */
+	void configure(int maxOpen, long idleTimeoutMillis) {
+		List<ImageServer<BufferedImage>> evicted;
+		synchronized (this) {
+			this.maxOpenServers = Math.max(maxOpen, 0);
+			this.idleTimeoutMillis = Math.max(idleTimeoutMillis, 0);
+			evicted = evictIdle(maxOpenServers);
+			scheduleSweep();
+		}
+		close(evicted);
+	}
+
+	/**
+	 * Close all unused servers.
+	 */
+	void clear() {
+		List<ImageServer<BufferedImage>> evicted;
+		synchronized (this) {
+			evicted = evictIdle(0);
+		}
+		close(evicted);
+	}
+
+	private void scheduleSweep() {
+		if (sweepTask != null) {
+			sweepTask.cancel(false);
+		}
+		long period = Math.max(idleTimeoutMillis / 2, 1000);
+		sweepTask = sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private void sweep() {
+		var evicted = new ArrayList<ImageServer<BufferedImage>>();
+		synchronized (this) {
+			long now = System.nanoTime();
+			for (var entry : List.copyOf(entries.values())) {
+				if (entry.isIdle() && TimeUnit.NANOSECONDS.toMillis(now - entry.releasedNanos) >= idleTimeoutMillis) {
+					evicted.add(evict(entry));
+				}
+			}
+		}
+		close(evicted);
+	}
+
+	/**
+	 * Remove the least recently released idle servers until at most <code>maxOpen</code> servers are open.
+	 * The removed servers must be closed by the caller once it released the lock of this pool.
+	 *
+	 * @return the removed servers
+	 */
+	private List<ImageServer<BufferedImage>> evictIdle(int maxOpen) {
+		int nOpen = entriesByServer.size();
+		if (nOpen <= maxOpen) {
+			return List.of();
+		}
+		var idle = new ArrayList<Entry>();
+		for (var entry : entries.values()) {
+			if (entry.isIdle()) {
+				idle.add(entry);
+			}
+		}
+		idle.sort(Comparator.comparingLong(entry -> entry.releasedNanos));
+		var evicted = new ArrayList<ImageServer<BufferedImage>>();
+		for (int i = 0; i < idle.size() && nOpen > maxOpen; i++, nOpen--) {
+			evicted.add(evict(idle.get(i)));
+		}
+		if (nOpen > maxOpen && maxOpen > 0) {
+			logger.debug("{} image servers are in use, more than the maximum of {}", nOpen, maxOpen);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Remove <code>entry</code> from this pool, without closing its server.
+	 *
+	 * @return the server of the entry, to be closed by the caller
+	 */
+	private ImageServer<BufferedImage> evict(Entry entry) {
+		entries.remove(entry.key);
+		entriesByServer.remove(entry.server);
+		evictions++;
+		return entry.server;
+	}
+
+	/**
+	 * Close evicted servers, outside the lock of this pool so that a slow close
+	 * (e.g. of a file on a network mount) does not block other acquisitions and releases.
+	 */
+	private static void close(List<ImageServer<BufferedImage>> servers) {
+		for (var server : servers) {
+			try {
+				server.close();
+			} catch (Exception e) {
+				logger.warn("Unable to close image server {}: {}", server.getPath(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Get the counters of this pool.
+	 *
+	 * @return a map with the number of <code>open</code> and <code>inUse</code> servers,
+	 *         the number of <code>hits</code>, <code>misses</code> and <code>evictions</code>,
+	 *         and the limits of the pool
+	 */
+	synchronized Map<String, Long> getStatistics() {
+		var statistics = new HashMap<String, Long>();
+		statistics.put("open", (long) entriesByServer.size());
+		statistics.put("inUse", entries.values().stream().filter(entry -> entry.references > 0).count());
+		statistics.put("hits", hits);
+		statistics.put("misses", misses);
+		statistics.put("evictions", evictions);
+		statistics.put("maxOpenServers", (long) maxOpenServers);
+		statistics.put("idleTimeoutMillis", idleTimeoutMillis);
+		return statistics;
+	}
+
+	private static class Entry {
+
+		private final String key;
+		private ImageServer<BufferedImage> server;
+		private int references = 0;
+		private long releasedNanos;
+
+		private Entry(String key) {
+			this.key = key;
+		}
+
+		private boolean isIdle() {
+			return references == 0 && server != null;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Result of the import of one image.
+ */
+public class ImportResult {
+
+	static final int STEP_OPEN = 0;
+	static final int STEP_READ_THUMBNAIL = 1;
+	static final int STEP_ESTIMATE_TYPE = 2;
+	static final int STEP_RENDER_THUMBNAIL = 3;
+	static final int STEP_ADD_ENTRY = 4;
+	static final int N_STEPS = 5;
+
+	private final String imagePath;
+	private final ProjectImageEntry<BufferedImage> entry;
+	private final String error;
+	private final long[] timings;
+
+	private ImportResult(String imagePath, ProjectImageEntry<BufferedImage> entry, String error, long[] timings) {
+		this.imagePath = imagePath;
+		this.entry = entry;
+		this.error = error;
+		this.timings = timings;
+	}
+
+	static ImportResult success(String imagePath, ProjectImageEntry<BufferedImage> entry, long[] timings) {
+		return new ImportResult(imagePath, entry, null, timings);
+	}
+
+	static ImportResult failure(String imagePath, Throwable cause) {
+		return new ImportResult(imagePath, null, String.valueOf(cause.getMessage()), new long[N_STEPS]);
+	}
+
+	private double millis(int step) {
+		return timings[step] / 1e6;
+	}
+
+	/**
+	 * @return the path of the imported image
+	 */
+	public String getImagePath() {
+		return imagePath;
+	}
+
+	/**
+	 * @return the added image entry, or <b>null</b> if the import failed
+	 */
+	public ProjectImageEntry<BufferedImage> getEntry() {
+		return entry;
+	}
+
+	/**
+	 * @return true if the image was added to the project
+	 */
+	public boolean isSuccess() {
+		return entry != null;
+	}
+
+	/**
+	 * @return the reason of the failure, or <b>null</b> if the import succeeded
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return the time spent opening the image server, in milliseconds
+	 */
+	public double getOpenMillis() {
+		return millis(STEP_OPEN);
+	}
+
+	/**
+	 * @return the time spent reading the thumbnail from the image server, in milliseconds
+	 */
+	public double getReadThumbnailMillis() {
+		return millis(STEP_READ_THUMBNAIL);
+	}
+
+	/**
+	 * @return the time spent estimating the image type from the thumbnail, in milliseconds
+	 */
+	public double getEstimateTypeMillis() {
+		return millis(STEP_ESTIMATE_TYPE);
+	}
+
+	/**
+	 * @return the time spent rendering the RGB thumbnail of the entry, in milliseconds
+	 */
+	public double getRenderThumbnailMillis() {
+		return millis(STEP_RENDER_THUMBNAIL);
+	}
+
+	/**
+	 * @return the time spent adding the entry to the project, in milliseconds
+	 */
+	public double getAddEntryMillis() {
+		return millis(STEP_ADD_ENTRY);
+	}
+
+	/**
+	 * @return the total time of the import, in milliseconds
+	 */
+	public double getTotalMillis() {
+		long total = 0;
+		for (long timing : timings) {
+			total += timing;
+		}
+		return total / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return isSuccess() ? "Imported " + imagePath : "Failed to import " + imagePath + ": " + error;
+	}
+}
@@ -0,0 +1,134 @@
+package qupath.ext.py4j.core;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import qupath.lib.analysis.images.ContourTracing;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.GeometryTools;
+
+import java.awt.Point;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+
+/**
+ * Convert a label mask into detection objects.
+ *
+ * <p>
+ *     The mask is split into tiles that are traced in parallel by {@link ContourTracing}.
+ *     The pieces of a label found in several tiles are then merged, so that objects
+ *     crossing tile borders are not split. Traced geometries are scaled by the downsample
+ *     of the mask and translated to its origin, so the detections are in full resolution coordinates.
+ * </p>
+ */
+final class LabelMaskTracer {
+
+	/**
+	 * Default width and height of the tiles traced in parallel.
+	 */
+	static final int DEFAULT_TILE_SIZE = 512;
+
+	private LabelMaskTracer() {
+	}
+
+	/**
+	 * Read a label mask of little-endian <code>int32</code> labels, row by row.
+	 *
+	 * @param buffer the buffer containing the labels
+	 * @param width  the width of the mask
+	 * @param height the height of the mask
+	 * @return the labels
+	 */
+	static int[] readLabels(ByteBuffer buffer, int width, int height) {
+		long n = (long) width * height;
+		if (buffer.remaining() != n * Integer.BYTES) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " label mask needs " + n * Integer.BYTES +
+					" bytes, but " + buffer.remaining() + " bytes were provided");
+		}
+		var labels = new int[(int) n];
+		buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(labels);
+		return labels;
+	}
+
+	/**
+	 * Trace all labels &gt; 0 of a mask, create one detection per label and add them to <code>hierarchy</code>
+	 * with a single event.
+	 *
+	 * @param hierarchy the hierarchy to add the detections to
+	 * @param request   the region covered by the mask, whose downsample is the one of the mask
+	 * @param labels    the labels of the mask, row by row
+	 * @param width     the width of the mask
+	 * @param height    the height of the mask
+	 * @param pathClass the class of the detections, or <b>null</b>
+	 * @param tileSize  the width and height of the tiles traced in parallel
+	 * @return the created detections, ordered by label
+	 */
+	static List<PathObject> addDetections(
+			PathObjectHierarchy hierarchy,
+			RegionRequest request,
+			int[] labels,
+			int width,
+			int height,
+			PathClass pathClass,
+			int tileSize) {
+		if (labels.length != width * height) {
+			throw new IllegalArgumentException("Label mask has " + labels.length + " values, but " + width + "x" + height + " was expected");
+		}
+		int size = tileSize > 0 ? tileSize : DEFAULT_TILE_SIZE;
+		var raster = Raster.createBandedRaster(new DataBufferInt(labels, labels.length), width, height, width,
+				new int[] {0}, new int[] {0}, (Point) null);
+		double downsample = request.getDownsample();
+
+		int nTilesX = (width + size - 1) / size;
+		int nTilesY = (height + size - 1) / size;
+		Map<Integer, Collection<Geometry>> pieces = new ConcurrentHashMap<>();
+		IntStream.range(0, nTilesX * nTilesY).parallel().forEach(i -> {
+			int x = (i % nTilesX) * size;
+			int y = (i / nTilesX) * size;
+			int w = Math.min(size, width - x);
+			int h = Math.min(size, height - y);
+			int maxLabel = 0;
+			for (int yy = y; yy < y + h; yy++) {
+				for (int xx = x; xx < x + w; xx++) {
+					maxLabel = Math.max(maxLabel, labels[yy * width + xx]);
+				}
+			}
+			if (maxLabel < 1) {
+				return;
+			}
+			// trace in tile pixel coordinates, then map to full resolution coordinates
+			var tile = raster.createChild(x, y, w, h, 0, 0, null);
+			var tileRequest = RegionRequest.createInstance(request.getPath(), 1.0, 0, 0, w, h);
+			var transform = AffineTransformation.scaleInstance(downsample, downsample)
+					.translate(request.getX() + x * downsample, request.getY() + y * downsample);
+			for (var entry : ContourTracing.createGeometries(tile, 0, tileRequest, 1, maxLabel).entrySet()) {
+				pieces.computeIfAbsent(entry.getKey().intValue(), k -> new ConcurrentLinkedQueue<>())
+						.add(transform.transform(entry.getValue()));
+			}
+		});
+
+		var plane = ImagePlane.getPlane(request.getZ(), request.getT());
+		var sorted = new TreeMap<>(pieces);
+		var detections = sorted.values().parallelStream().map(geometries -> {
+			var geometry = geometries.size() == 1 ? geometries.iterator().next() : GeometryTools.union(geometries);
+			return PathObjects.createDetectionObject(GeometryTools.geometryToROI(geometry, plane), pathClass);
+		}).toList();
+
+		hierarchy.addObjects(detections);
+		return detections;
+	}
+}
@@ -0,0 +1,154 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.objects.PathObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+
+/**
+ * Write measurements of objects as columns of primitive doubles in a memory-mapped file.
+ *
+ * <p>
+ *     The file starts with a little-endian header, followed by one <code>float64</code>
+ *     column per measurement (<code>NaN</code> for missing values), in the order of the objects:
+ * </p>
+ * <pre>
+ * bytes  0-3   magic "QPCL"
+ * bytes  4-7   int32 version (1)
+ * bytes  8-15  int64 number of rows
+ * bytes 16-19  int32 number of columns
+ * bytes 20-23  int32 size of the header, columns start 8-byte aligned after it
+ * then, for each column: int32 name length, UTF-8 name, int64 offset of the column from the start of the file
+ * </pre>
+ * <p>
+ *     The same directory is returned as a JSON descriptor, so that each column can be read in Python with
+ *     <code>np.memmap(path, '&lt;f8', mode='r', offset=offset, shape=(nRows,))</code>.
+ * </p>
+ */
+final class MeasurementColumns {
+
+	private static final byte[] MAGIC = {'Q', 'P', 'C', 'L'};
+	private static final int VERSION = 1;
+
+	private MeasurementColumns() {
+	}
+
+	/**
+	 * Describe the columns written to a file.
+	 */
+	static class Descriptor {
+		String path;
+		long nRows;
+		String dtype = "float64";
+		String byteOrder = "little";
+		List<Column> columns = new ArrayList<>();
+	}
+
+	/**
+	 * Describe one column written to a file.
+	 */
+	static class Column {
+		String name;
+		long offset;
+
+		Column(String name, long offset) {
+			this.name = name;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Get the names of all measurements of <code>pathObjects</code>, in the order they are first found.
+	 *
+	 * @param pathObjects the objects
+	 * @return the measurement names
+	 */
+	static List<String> getAllNames(Collection<? extends PathObject> pathObjects) {
+		var names = new LinkedHashSet<String>();
+		for (var pathObject : pathObjects) {
+			names.addAll(pathObject.getMeasurementList().getNames());
+		}
+		return new ArrayList<>(names);
+	}
+
+	/**
+	 * Write the <code>columns</code> measurements of <code>pathObjects</code> to file <code>path</code>.
+	 *
+	 * @param pathObjects the objects, one per row
+	 * @param columns     the measurement names, one per column
+	 * @param path        the file to write, which is overwritten
+	 * @return the descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the file
+	 */
+	static Descriptor write(Collection<? extends PathObject> pathObjects, List<String> columns, Path path) throws IOException {
+		var objects = new ArrayList<PathObject>(pathObjects);
+		int nRows = objects.size();
+
+		var descriptor = new Descriptor();
+		descriptor.path = path.toString();
+		descriptor.nRows = nRows;
+
+		var encodedNames = new ArrayList<byte[]>(columns.size());
+		int headerSize = MAGIC.length + 3 * Integer.BYTES + Long.BYTES;
+		for (var column : columns) {
+			var encoded = column.getBytes(StandardCharsets.UTF_8);
+			encodedNames.add(encoded);
+			headerSize += Integer.BYTES + encoded.length + Long.BYTES;
+		}
+		long dataStart = align(headerSize);
+		long columnBytes = (long) nRows * Double.BYTES;
+		for (int c = 0; c < columns.size(); c++) {
+			descriptor.columns.add(new Column(columns.get(c), dataStart + c * columnBytes));
+		}
+
+		var header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(nRows);
+		header.putInt(columns.size());
+		header.putInt(headerSize);
+		for (int c = 0; c < columns.size(); c++) {
+			header.putInt(encodedNames.get(c).length);
+			header.put(encodedNames.get(c));
+			header.putLong(descriptor.columns.get(c).offset);
+		}
+		Files.deleteIfExists(path);
+		PixelBuffers.map(path, 0, headerSize).put(header.flip());
+
+		for (var column : descriptor.columns) {
+			if (nRows == 0) {
+				break;
+			}
+			fill(PixelBuffers.map(path, column.offset, columnBytes).asDoubleBuffer(), objects, column.name);
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Read measurement <code>name</code> of <code>pathObjects</code> in parallel into <code>column</code>,
+	 * whose first value is the value of the first object.
+	 *
+	 * @param column      the buffer to fill, with at least one value per object
+	 * @param pathObjects the objects, one per value
+	 * @param name        the name of the measurement
+	 */
+	static void fill(DoubleBuffer column, List<? extends PathObject> pathObjects, String name) {
+		IntStream.range(0, pathObjects.size()).parallel()
+				.forEach(i -> column.put(i, pathObjects.get(i).getMeasurementList().get(name)));
+	}
+
+	private static long align(long position) {
+		return (position + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+	}
+}
@@ -0,0 +1,116 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+
+/**
+ * Select objects of a hierarchy and read only the requested measurements,
+ * as primitive doubles.
+ *
+ * <p>
+ *     Objects are filtered by type, class and parent in parallel, then each requested
+ *     measurement is read into a column of <code>double</code>s (<code>NaN</code> when missing),
+ *     so no boxed values nor unused columns are created.
+ * </p>
+ */
+final class MeasurementQuery {
+
+	private MeasurementQuery() {
+	}
+
+	/**
+	 * Select the objects of <code>hierarchy</code> matching all filters, in the order of the hierarchy.
+	 *
+	 * @param hierarchy  the hierarchy to query
+	 * @param objectType <code>detection</code> (including cells and tiles), <code>cell</code>, <code>tile</code>,
+	 *                   <code>annotation</code>, or <b>null</b> or <code>all</code> for all objects
+	 * @param className  the name of the class of the objects, an empty text for unclassified objects,
+	 *                   or <b>null</b> for any class
+	 * @param parent     the object whose descendants are selected, or <b>null</b> for the whole hierarchy
+	 * @return the selected objects
+	 */
+	static List<PathObject> select(PathObjectHierarchy hierarchy, String objectType, String className, PathObject parent) {
+		String type = objectType == null ? "all" : objectType.toLowerCase(Locale.ROOT);
+		Predicate<PathObject> typeFilter = switch (type) {
+			case "detection" -> PathObject::isDetection;
+			case "cell" -> PathObject::isCell;
+			case "tile" -> PathObject::isTile;
+			case "annotation" -> PathObject::isAnnotation;
+			case "all" -> pathObject -> !pathObject.isRootObject();
+			default -> throw new IllegalArgumentException("Unknown object type " + objectType +
+					" (expected detection, cell, tile, annotation or all)");
+		};
+
+		Collection<PathObject> candidates;
+		if (parent != null) {
+			candidates = parent.getDescendantObjects(new ArrayList<>());
+		} else {
+			candidates = switch (type) {
+				case "detection" -> hierarchy.getDetectionObjects();
+				case "cell" -> hierarchy.getCellObjects();
+				case "tile" -> hierarchy.getTileObjects();
+				case "annotation" -> hierarchy.getAnnotationObjects();
+				default -> hierarchy.getAllObjects(false);
+			};
+		}
+
+		Predicate<PathObject> filter = typeFilter;
+		if (className != null) {
+			if (className.isEmpty()) {
+				filter = filter.and(pathObject -> pathObject.getPathClass() == null || pathObject.getPathClass() == PathClass.NULL_CLASS);
+			} else {
+				var pathClass = PathClass.fromString(className);
+				filter = filter.and(pathObject -> pathClass.equals(pathObject.getPathClass()));
+			}
+		}
+		return candidates.parallelStream().filter(filter).toList();
+	}
+
+	/**
+	 * Read measurement <code>column</code> of <code>pathObjects</code>.
+	 *
+	 * @param pathObjects the objects, one per value
+	 * @param column      the name of the measurement
+	 * @return the values, <code>NaN</code> when missing
+	 */
+	static double[] values(List<PathObject> pathObjects, String column) {
+		var values = new double[pathObjects.size()];
+		MeasurementColumns.fill(DoubleBuffer.wrap(values), pathObjects, column);
+		return values;
+	}
+
+	/**
+	 * Read the <code>columns</code> measurements of <code>pathObjects</code> into
+	 * consecutive little-endian <code>float64</code> columns, so that they can be read in Python with
+	 * <code>np.frombuffer(bytes, '&lt;f8').reshape(len(columns), -1)</code>.
+	 *
+	 * @param pathObjects the objects, one per row
+	 * @param columns     the names of the measurements, one per column
+	 * @return the packed columns
+	 */
+	static byte[] toBytes(List<PathObject> pathObjects, List<String> columns) {
+		int nRows = pathObjects.size();
+		long size = (long) nRows * columns.size() * Double.BYTES;
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException(nRows + " rows of " + columns.size() +
+					" columns do not fit in a byte array: use shared memory columns instead");
+		}
+		var bytes = new byte[(int) size];
+		var buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		for (int c = 0; c < columns.size(); c++) {
+			MeasurementColumns.fill(buffer.slice(c * nRows, nRows), pathObjects, columns.get(c));
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,320 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.PixelType;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Write the raster of a {@link BufferedImage} as raw little-endian samples,
+ * so that Python can view them with numpy without any image decoding.
+ *
+ * <p>
+ *     Samples are written either interleaved (<code>HWC</code>) or
+ *     planar (<code>CHW</code>), using the {@link PixelType} of the image server
+ *     as the numpy <code>dtype</code> (RGB servers are written as 3 <code>uint8</code> channels).
+ * </p>
+ */
+final class PixelBuffers {
+
+	/**
+	 * Channel order for interleaved samples (height, width, channels).
+	 */
+	static final String ORDER_INTERLEAVED = "HWC";
+
+	/**
+	 * Channel order for planar samples (channels, height, width).
+	 */
+	static final String ORDER_PLANAR = "CHW";
+
+	/**
+	 * Size in bytes of the header written by {@link #toRawBytes(BufferedImage, PixelType, boolean)}.
+	 */
+	static final int RAW_HEADER_SIZE = 32;
+
+	private static final byte[] RAW_MAGIC = {'Q', 'P', 'R', 'W'};
+
+	private static final PixelType[] RAW_DTYPES = {
+			PixelType.UINT8, PixelType.INT8, PixelType.UINT16, PixelType.INT16,
+			PixelType.UINT32, PixelType.INT32, PixelType.FLOAT32, PixelType.FLOAT64
+	};
+
+	private static final String SHARED_MEMORY_PREFIX = "qupath-py4j-";
+
+	// shared memory files not released yet, deleted when the JVM exits
+	private static final Set<Path> sharedMemoryFiles = ConcurrentHashMap.newKeySet();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(PixelBuffers::deleteSharedMemoryFiles, "py4j-shared-memory-cleanup"));
+	}
+
+	private PixelBuffers() {
+	}
+
+	/**
+	 * Describe raw pixels so that they can be viewed with
+	 * <code>np.memmap(path, dtype, mode='r', offset=offset, shape=shape)</code>.
+	 */
+	static class Descriptor {
+		String path;
+		long offset;
+		long nbytes;
+		int[] shape;
+		String dtype;
+		String order;
+		String byteOrder = "little";
+		List<String> channels;
+	}
+
+	/**
+	 * Get the numpy <code>dtype</code> name of the pixels returned by <code>server</code>.
+	 *
+	 * @param server the image server
+	 * @return the dtype name (e.g. <code>uint8</code>, <code>float32</code>)
+	 */
+	static String dtype(ImageServer<BufferedImage> server) {
+		return server.getPixelType().toString().toLowerCase();
+	}
+
+	/**
+	 * Number of bytes needed to store all samples of <code>img</code>.
+	 *
+	 * @param img       the image to store
+	 * @param pixelType the pixel type of the image
+	 * @return the number of bytes
+	 */
+	static long byteCount(BufferedImage img, PixelType pixelType) {
+		var raster = img.getRaster();
+		return (long) raster.getWidth() * raster.getHeight() * raster.getNumBands() * pixelType.getBytesPerPixel();
+	}
+
+	/**
+	 * Create a descriptor for the samples of <code>img</code>.
+	 *
+	 * @param server the image server <code>img</code> was read from
+	 * @param img    the image
+	 * @param planar true for <code>CHW</code>, false for <code>HWC</code>
+	 * @return the descriptor (without path and offset)
+	 */
+	static Descriptor describe(ImageServer<BufferedImage> server, BufferedImage img, boolean planar) {
+		var raster = img.getRaster();
+		int w = raster.getWidth(), h = raster.getHeight(), c = raster.getNumBands();
+		var descriptor = new Descriptor();
+		descriptor.nbytes = byteCount(img, server.getPixelType());
+		descriptor.shape = planar ? new int[] {c, h, w} : new int[] {h, w, c};
+		descriptor.dtype = dtype(server);
+		descriptor.order = planar ? ORDER_PLANAR : ORDER_INTERLEAVED;
+		descriptor.channels = new ArrayList<>();
+		for (var channel : server.getMetadata().getChannels()) {
+			descriptor.channels.add(channel.getName());
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Write all samples of <code>img</code> into <code>buffer</code>,
+	 * starting at its current position.
+	 *
+	 * @param img       the image to write
+	 * @param pixelType the pixel type of the image
+	 * @param planar    true for <code>CHW</code>, false for <code>HWC</code>
+	 * @param buffer    the buffer to write to (its byte order is set to little-endian)
+	 */
+	static void write(BufferedImage img, PixelType pixelType, boolean planar, ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		var raster = img.getRaster();
+		int w = raster.getWidth(), h = raster.getHeight(), nBands = raster.getNumBands();
+		if (planar) {
+			for (int b = 0; b < nBands; b++) {
+				for (int y = 0; y < h; y++) {
+					writeRow(raster, pixelType, y, w, b, buffer);
+				}
+			}
+		} else {
+			for (int y = 0; y < h; y++) {
+				writeRow(raster, pixelType, y, w, -1, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Write one row of samples; <code>band &lt; 0</code> writes all bands interleaved.
+	 */
+	private static void writeRow(WritableRaster raster, PixelType pixelType, int y, int w, int band, ByteBuffer buffer) {
+		int n = band < 0 ? w * raster.getNumBands() : w;
+		switch (pixelType) {
+			case FLOAT32 -> {
+				float[] row = band < 0 ? raster.getPixels(0, y, w, 1, (float[]) null) : raster.getSamples(0, y, w, 1, band, (float[]) null);
+				buffer.asFloatBuffer().put(row, 0, n);
+				buffer.position(buffer.position() + n * Float.BYTES);
+			}
+			case FLOAT64 -> {
+				double[] row = band < 0 ? raster.getPixels(0, y, w, 1, (double[]) null) : raster.getSamples(0, y, w, 1, band, (double[]) null);
+				buffer.asDoubleBuffer().put(row, 0, n);
+				buffer.position(buffer.position() + n * Double.BYTES);
+			}
+			default -> {
+				int[] row = band < 0 ? raster.getPixels(0, y, w, 1, (int[]) null) : raster.getSamples(0, y, w, 1, band, (int[]) null);
+				switch (pixelType.getBytesPerPixel()) {
+					case 1 -> {
+						for (int i = 0; i < n; i++) {
+							buffer.put((byte) row[i]);
+						}
+					}
+					case 2 -> {
+						for (int i = 0; i < n; i++) {
+							buffer.putShort((short) row[i]);
+						}
+					}
+					default -> {
+						buffer.asIntBuffer().put(row, 0, n);
+						buffer.position(buffer.position() + n * Integer.BYTES);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write all samples of <code>img</code> into a new array, preceded by a
+	 * {@value #RAW_HEADER_SIZE}-byte little-endian header:
+	 *
+	 * <pre>
+	 * bytes  0-3  magic "QPRW"
+	 * bytes  4-7  int32 header size
+	 * bytes  8-11 int32 width
+	 * bytes 12-15 int32 height
+	 * bytes 16-19 int32 number of channels
+	 * bytes 20-23 int32 dtype code (0 uint8, 1 int8, 2 uint16, 3 int16, 4 uint32, 5 int32, 6 float32, 7 float64)
+	 * bytes 24-27 int32 1 if planar (CHW), 0 if interleaved (HWC)
+	 * bytes 28-31 reserved
+	 * </pre>
+	 *
+	 * @param img       the image to write
+	 * @param pixelType the pixel type of the image
+	 * @param planar    true for <code>CHW</code>, false for <code>HWC</code>
+	 * @return the header followed by the samples
+	 */
+	static byte[] toRawBytes(BufferedImage img, PixelType pixelType, boolean planar) {
+		long nBytes = RAW_HEADER_SIZE + byteCount(img, pixelType);
+		if (nBytes > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Region is too large for a byte array (" + nBytes + " bytes), use shared memory instead");
+		}
+		var raster = img.getRaster();
+		var bytes = new byte[(int) nBytes];
+		var buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(RAW_MAGIC);
+		buffer.putInt(RAW_HEADER_SIZE);
+		buffer.putInt(raster.getWidth());
+		buffer.putInt(raster.getHeight());
+		buffer.putInt(raster.getNumBands());
+		buffer.putInt(dtypeCode(pixelType));
+		buffer.putInt(planar ? 1 : 0);
+		buffer.putInt(0);
+		write(img, pixelType, planar, buffer);
+		return bytes;
+	}
+
+	private static int dtypeCode(PixelType pixelType) {
+		for (int i = 0; i < RAW_DTYPES.length; i++) {
+			if (RAW_DTYPES[i] == pixelType) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported pixel type " + pixelType);
+	}
+
+	/**
+	 * Get the directory used for shared memory files.
+	 * <code>/dev/shm</code> is used when available (i.e. RAM-backed on Linux),
+	 * otherwise the default temporary directory.
+	 *
+	 * @return the shared memory directory
+	 */
+	static Path sharedMemoryDirectory() {
+		var shm = Paths.get("/dev/shm");
+		if (Files.isDirectory(shm) && Files.isWritable(shm)) {
+			return shm;
+		}
+		return Paths.get(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * Create a new, empty shared memory file that is deleted when the JVM exits,
+	 * unless released before by {@link #releaseSharedMemoryFile(String)}.
+	 *
+	 * @param suffix the file suffix
+	 * @return the path to the created file
+	 * @throws IOException if the file cannot be created
+	 */
+	static Path createSharedMemoryFile(String suffix) throws IOException {
+		var path = Files.createTempFile(sharedMemoryDirectory(), SHARED_MEMORY_PREFIX, suffix);
+		// tracked here rather than with File.deleteOnExit(), whose registry only grows
+		sharedMemoryFiles.add(path.toAbsolutePath().normalize());
+		return path;
+	}
+
+	private static void deleteSharedMemoryFiles() {
+		for (var path : sharedMemoryFiles) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				// the JVM is exiting, nothing else can be done
+			}
+		}
+		sharedMemoryFiles.clear();
+	}
+
+	/**
+	 * Map <code>size</code> bytes of file <code>path</code> starting at <code>offset</code>,
+	 * growing the file if needed.
+	 *
+	 * @param path   the file to map
+	 * @param offset the offset of the mapped region
+	 * @param size   the size of the mapped region
+	 * @return a little-endian buffer over the mapped region
+	 * @throws IOException if the file cannot be mapped
+	 */
+	static MappedByteBuffer map(Path path, long offset, long size) throws IOException {
+		try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			var buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return buffer;
+		}
+	}
+
+	/**
+	 * Delete a shared memory file previously created by {@link #createSharedMemoryFile(String)}.
+	 * Files outside the shared memory directory, or not created by this class, are left untouched.
+	 *
+	 * @param path the file to delete
+	 * @return true if the file was deleted
+	 * @throws IOException if the file cannot be deleted
+	 */
+	static boolean releaseSharedMemoryFile(String path) throws IOException {
+		var file = Paths.get(path).toAbsolutePath().normalize();
+		// a root path has no parent (nor file name), and is never a shared memory file
+		if (!Objects.equals(file.getParent(), sharedMemoryDirectory().toAbsolutePath().normalize()) ||
+				!file.getFileName().toString().startsWith(SHARED_MEMORY_PREFIX)) {
+			return false;
+		}
+		sharedMemoryFiles.remove(file);
+		return Files.deleteIfExists(file);
+	}
+}
@@ -0,0 +1,220 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.io.GsonTools;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+
+/**
+ * Iterate over the entries of a {@link Project}, reading their {@link ImageData} lazily.
+ *
+ * <p>
+ *     Only the image data returned by the last call to {@link #next()} or {@link #next(int)}
+ *     are kept open: they are released (optionally saved, then their server is closed)
+ *     when the next ones are requested, or when the scanner is closed.
+ *     This keeps at most <code>n</code> object hierarchies in memory at a time.
+ * </p>
+ * <p>
+ *     An upper bound of the peak heap usage of the whole process while each batch of entries was open
+ *     is reported by {@link #getStatistics()}. It is the sum of the peaks of the JVM heap memory pools,
+ *     which are reset when a batch is read: the pools may reach their peaks at different times, so
+ *     the heap may never have been that full at once. It also includes memory used by other threads,
+ *     and any other tool reading these peaks sees them reset.
+ *     Only the statistics of the last {@value #MAX_STATISTICS} released entries are kept.
+ * </p>
+ */
+public class ProjectScanner implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProjectScanner.class);
+	private static final int MAX_STATISTICS = 1000;
+
+	private final List<ProjectImageEntry<BufferedImage>> entries;
+	private final boolean saveOnRelease;
+	private final List<ImageData<BufferedImage>> current = new ArrayList<>();
+	private final List<ProjectImageEntry<BufferedImage>> currentEntries = new ArrayList<>();
+	private final Deque<EntryStatistics> statistics = new ArrayDeque<>();
+	private int position = 0;
+	private long loadNanos = 0;
+
+	/**
+	 * Memory statistics of one scanned entry. The upper bound of the peak heap usage and the load time
+	 * are those of the batch the entry was read in.
+	 */
+	static class EntryStatistics {
+		String imageName;
+		long batchPeakHeapBytes;
+		double batchLoadMillis;
+	}
+
+	ProjectScanner(Project<BufferedImage> project, boolean saveOnRelease) {
+		this.entries = new ArrayList<>(project.getImageList());
+		this.saveOnRelease = saveOnRelease;
+	}
+
+	/**
+	 * Get the number of entries scanned by this scanner.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Check if some entries have not been read yet.
+	 *
+	 * @return true if {@link #next()} can return more image data
+	 */
+	public synchronized boolean hasNext() {
+		return position < entries.size();
+	}
+
+	/**
+	 * Release the image data previously returned, and read the image data of the next entry.
+	 *
+	 * @return the image data of the next entry, or <b>null</b> if all entries have been read
+	 * @throws IOException if an error occurs while saving the previous image data or reading the next one
+	 */
+	public synchronized ImageData<BufferedImage> next() throws IOException {
+		var next = next(1);
+		return next.isEmpty() ? null : next.get(0);
+	}
+
+	/**
+	 * Release the image data previously returned, and read the image data of the next <code>n</code> entries.
+	 *
+	 * @param n the maximum number of image data to read
+	 * @return the image data of the next entries, which is empty once all entries have been read
+	 * @throws IOException if an error occurs while saving the previous image data or reading the next ones
+	 */
+	public synchronized List<ImageData<BufferedImage>> next(int n) throws IOException {
+		release();
+		resetPeakHeapUsage();
+		long start = System.nanoTime();
+		while (currentEntries.size() < n && position < entries.size()) {
+			var entry = entries.get(position++);
+			var imageData = entry.readImageData();
+			currentEntries.add(entry);
+			current.add(imageData);
+		}
+		loadNanos = System.nanoTime() - start;
+		return new ArrayList<>(current);
+	}
+
+	/**
+	 * Get the entry of the image data returned by {@link #next()} or {@link #next(int)}.
+	 *
+	 * @param imageData the image data
+	 * @return the entry, or <b>null</b> if <code>imageData</code> is not currently open
+	 */
+	public synchronized ProjectImageEntry<BufferedImage> getEntry(ImageData<BufferedImage> imageData) {
+		int index = current.indexOf(imageData);
+		return index < 0 ? null : currentEntries.get(index);
+	}
+
+	/**
+	 * Get the memory statistics of the last {@value #MAX_STATISTICS} released entries, as a JSON array
+	 * of objects with <code>imageName</code>, <code>batchPeakHeapBytes</code> and <code>batchLoadMillis</code>.
+	 *
+	 * <p>
+	 *     The peak is an upper bound of the heap usage of the whole process (not only of the entry)
+	 *     while the batch was open, and the load time is the time taken to read the whole batch:
+	 *     when several entries are read at once by {@link #next(int)}, they share the same values.
+	 * </p>
+	 *
+	 * @return the statistics of the last released entries, oldest first
+	 */
+	public synchronized String getStatistics() {
+		return GsonTools.getInstance().toJson(statistics);
+	}
+
+	/**
+	 * Release the image data currently open.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		release();
+	}
+
+	private void release() throws IOException {
+		if (current.isEmpty()) {
+			return;
+		}
+		long peak = getPeakHeapUsage();
+		double loadMillis = loadNanos / 1e6;
+		IOException saveError = null;
+		try {
+			for (int i = 0; i < current.size(); i++) {
+				var entry = currentEntries.get(i);
+				var imageData = current.get(i);
+				try {
+					if (saveOnRelease && imageData.isChanged()) {
+						entry.saveImageData(imageData);
+					}
+				} catch (IOException e) {
+					// keep releasing the other entries, and report all failed saves at the end
+					if (saveError == null) {
+						saveError = new IOException("Unable to save image data of " + entry.getImageName(), e);
+					} else {
+						saveError.addSuppressed(e);
+					}
+				} finally {
+					try {
+						imageData.getServer().close();
+					} catch (Exception e) {
+						logger.warn("Unable to close server of {}: {}", entry.getImageName(), e.getMessage());
+					}
+				}
+				var entryStatistics = new EntryStatistics();
+				entryStatistics.imageName = entry.getImageName();
+				entryStatistics.batchPeakHeapBytes = peak;
+				entryStatistics.batchLoadMillis = loadMillis;
+				statistics.addLast(entryStatistics);
+				if (statistics.size() > MAX_STATISTICS) {
+					statistics.removeFirst();
+				}
+			}
+		} finally {
+			current.clear();
+			currentEntries.clear();
+		}
+		if (saveError != null) {
+			throw saveError;
+		}
+	}
+
+	private static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Sum the peaks of the heap memory pools, which is an upper bound of the peak heap usage
+	 * since the pools do not necessarily reach their peaks at the same time.
+	 */
+	private static long getPeakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
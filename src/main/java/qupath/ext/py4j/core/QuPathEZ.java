@@ -7,7 +7,6 @@ import qupath.imagej.images.servers.ImageJServer;
 import qupath.lib.images.servers.bioformats.BioFormatsImageServer;
 import qupath.lib.images.servers.openslide.OpenslideImageServer;
 import qupath.lib.images.servers.ImageServerBuilder;
-import com.google.gson.Gson;
 
 import qupath.fx.utils.FXUtils;
 import qupath.lib.gui.panes.ImageDetailsPane;
@@ -27,14 +26,27 @@ import qupath.lib.gui.commands.Commands;
 import qupath.lib.projects.Projects;
 import qupath.lib.projects.ProjectIO;
 import qupath.lib.gui.commands.ProjectCommands;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.RegionRequest;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.analysis.images.ContourTracing;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.File;
 import java.net.URI;
-import java.io.FileWriter;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
 
 
 /**
@@ -43,6 +55,8 @@ import java.net.URISyntaxException;
  */
 public class QuPathEZ extends QuPathFX {
 
+	private static final String TILE_CACHE_TIFF_STACK = "tiff stack";
+
 	/**
 	 * Create a new {@link Project} at path <code>projectPath</code>.
 	 * The existing contents of <code>projectPath</code> will be erased.
@@ -93,19 +107,53 @@ public class QuPathEZ extends QuPathFX {
 		return ProjectIO.loadProject(file, BufferedImage.class);
 	}
 
+	/**
+	 * Scan all entries of <code>project</code>, reading their {@link ImageData} lazily.
+	 *
+	 * @param project the project to scan
+	 * @return <code>scanner</code> - the project scanner
+	 *
+	 * @see QuPathEZ#scanProject(Project, boolean)
+	 */
+	public static ProjectScanner scanProject(Project<BufferedImage> project) {
+		return scanProject(project, false);
+	}
+
+	/**
+	 * Scan all entries of <code>project</code>, reading their {@link ImageData} lazily.
+	 *
+	 * <p>
+	 *     Unlike calling {@link ProjectImageEntry#readImageData()} on every entry,
+	 *     the scanner only keeps the image data it returned last:
+	 *     each call to {@link ProjectScanner#next()} (or {@link ProjectScanner#next(int)})
+	 *     releases the previous image data and closes their servers first.
+	 *     An upper bound of the peak heap usage of the process while each batch was open is reported by
+	 *     {@link ProjectScanner#getStatistics()}.
+	 * </p>
+	 *
+	 * @param project       the project to scan
+	 * @param saveOnRelease true to save the changed image data back to their entries when they are released
+	 * @return <code>scanner</code> - the project scanner
+	 *
+	 * @see ProjectScanner
+	 */
+	public static ProjectScanner scanProject(Project<BufferedImage> project, boolean saveOnRelease) {
+		return new ProjectScanner(project, saveOnRelease);
+	}
+
 	/**
 	 * Add image <code>server</code> to <code>project</code> and
 	 * return its {@link ProjectImageEntry}.
 	 *
 	 * <p>
-	 *     Its {@link ImageData.ImageType ImageType} is estimated by
-	 *     {@link QuPathEZ#estimatedImageType} and
-	 *     the thumbnail is refreshed by {@link QuPathEZ#refreshThumbnail}
+	 *     Its {@link ImageData.ImageType ImageType} is estimated and
+	 *     its thumbnail is rendered from the same thumbnail of <code>server</code>,
+	 *     as in {@link QuPathEZ#importImage(Project, ImageServer)}.
 	 * </p>
 	 *
 	 * @param project the project to add the image entry to
 	 * @param server  the image server used to create the image entry
-	 * @return <code>entry</code> - the added image entry
+	 * @return <code>entry</code> - the added image entry, or <b>null</b> if <code>project</code> did not add it
 	 * @throws IOException if an error occurs while adding the image entry
 	 *
 	 * @see ProjectCommands#addSingleImageToProject
@@ -113,10 +161,7 @@ public class QuPathEZ extends QuPathFX {
 	public static ProjectImageEntry<BufferedImage> addImageEntry(
 			Project<BufferedImage> project,
 			ImageServer<BufferedImage> server) throws IOException {
-		var type  = estimatedImageType(server);
-		var entry = ProjectCommands.addSingleImageToProject(project, server, type);
-		refreshThumbnail(entry, server);	// refresh its thumbnail
-		return entry;
+		return importImage(project, server).getEntry();
 	}
 
 	/**
@@ -124,14 +169,14 @@ public class QuPathEZ extends QuPathFX {
 	 * return its {@link ProjectImageEntry}.
 	 *
 	 * <p>
-	 *     Its {@link ImageData.ImageType ImageType} is estimated by
-	 *     {@link QuPathEZ#estimatedImageType} and
-	 *     the thumbnail is refreshed by {@link QuPathEZ#refreshThumbnail}
+	 *     Its {@link ImageData.ImageType ImageType} is estimated and
+	 *     its thumbnail is rendered from the same thumbnail of the image,
+	 *     as in {@link QuPathEZ#importImage(Project, ImageServer)}.
 	 * </p>
 	 *
 	 * @param project the project to add the image entry to
 	 * @param imagePath  the image file used to create the image entry
-	 * @return the added image entry
+	 * @return the added image entry, or <b>null</b> if <code>project</code> did not add it
 	 * @throws URISyntaxException if the image path is not a valid {@link URI}
 	 * @throws IOException if an error occurs while loading the image file
 	 *
@@ -144,6 +189,95 @@ public class QuPathEZ extends QuPathFX {
 		return addImageEntry(project, createImageServer(imagePath));
 	}
 
+	/**
+	 * Add image <code>server</code> to <code>project</code> and
+	 * return the result of the import, with the time spent in each step.
+	 *
+	 * <p>
+	 *     The default thumbnail of the first z-slice of <code>server</code> is read only once:
+	 *     it is used both to estimate the {@link ImageData.ImageType ImageType}
+	 *     (as {@link QuPathEZ#estimatedImageType} does) and, for images with a single z-slice,
+	 *     to render the RGB thumbnail of the entry (as {@link QuPathEZ#refreshThumbnail} does).
+	 *     For z-stacks, the entry thumbnail is rendered from the middle z-slice.
+	 * </p>
+	 *
+	 * @param project the project to add the image entry to
+	 * @param server  the image server used to create the image entry
+	 * @return <code>result</code> - the added image entry and the timings of the import,
+	 *         or a failed result if <code>project</code> did not add the image
+	 * @throws IOException if an error occurs while adding the image entry
+	 *
+	 * @see ImportResult
+	 */
+	public static ImportResult importImage(
+			Project<BufferedImage> project,
+			ImageServer<BufferedImage> server) throws IOException {
+		return GatewayScheduler.run("importImage", () -> ImageImporter.importImage(project, server, server.getPath(), 0));
+	}
+
+	/**
+	 * Add image file <code>imagePath</code> to <code>project</code> and
+	 * return the result of the import, with the time spent in each step.
+	 * The image server is closed once the entry has been added.
+	 *
+	 * @param project   the project to add the image entry to
+	 * @param imagePath the image file used to create the image entry
+	 * @return <code>result</code> - the added image entry and the timings of the import
+	 * @throws Exception if an error occurs while opening the image file or adding the image entry
+	 *
+	 * @see QuPathEZ#importImage(Project, ImageServer)
+	 */
+	public static ImportResult importImage(
+			Project<BufferedImage> project,
+			String imagePath) throws Exception {
+		return GatewayScheduler.run("importImage", () -> ImageImporter.importImage(project, imagePath));
+	}
+
+	/**
+	 * Add image files <code>imagePaths</code> to <code>project</code> in parallel,
+	 * using one worker per processor.
+	 *
+	 * @param project    the project to add the image entries to
+	 * @param imagePaths the image files used to create the image entries
+	 * @return the result of each import, in the order of <code>imagePaths</code>
+	 * @throws IOException if an error occurs while saving the project
+	 *
+	 * @see QuPathEZ#addImageEntries(Project, List, int)
+	 */
+	public static List<ImportResult> addImageEntries(
+			Project<BufferedImage> project,
+			List<String> imagePaths) throws IOException {
+		return addImageEntries(project, imagePaths, 0);
+	}
+
+	/**
+	 * Add image files <code>imagePaths</code> to <code>project</code> in parallel.
+	 *
+	 * <p>
+	 *     Each image is imported as in {@link QuPathEZ#importImage(Project, String)},
+	 *     but servers are opened, image types estimated and thumbnails rendered by
+	 *     <code>nThreads</code> workers. Entries are added to <code>project</code> one at a time
+	 *     and the project is saved once by {@link Project#syncChanges()} when all images are done.
+	 *     Each result holds the timings of its import.
+	 *     An image that cannot be imported does not stop the others: its result
+	 *     holds the reason of the failure.
+	 * </p>
+	 *
+	 * @param project    the project to add the image entries to
+	 * @param imagePaths the image files used to create the image entries
+	 * @param nThreads   the number of workers, or a value &lt;= 0 to use the number of processors
+	 * @return the result of each import, in the order of <code>imagePaths</code>
+	 * @throws IOException if an error occurs while saving the project
+	 *
+	 * @see ImportResult
+	 */
+	public static List<ImportResult> addImageEntries(
+			Project<BufferedImage> project,
+			List<String> imagePaths,
+			int nThreads) throws IOException {
+		return GatewayScheduler.run("addImageEntries", () -> ImageImporter.importImages(project, imagePaths, nThreads));
+	}
+
 	/**
 	 * Remove image <code>entry</code> from <code>project</code>.
 	 * All associated data will be removed.
@@ -238,6 +372,78 @@ public class QuPathEZ extends QuPathFX {
 		saveImageData(getCurrentImageData());
 	}
 
+	/**
+	 * Save <code>imageData</code> back to its <code>project</code> in the background.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEZ#saveImageData(ImageData, Project)}, this returns immediately.
+	 *     Saves of the same entry are run one at a time, and a save requested while another one
+	 *     is waiting replaces it. The save is skipped if the hierarchy of <code>imageData</code>
+	 *     has not changed since it was last saved this way, and <code>imageData</code> is not marked as changed;
+	 *     otherwise the whole image data is written. Changes of the hierarchy made during a save wait for it to end.
+	 *     Use {@link QuPathEZ#flushSaves()} to wait for the saves to be done.
+	 * </p>
+	 *
+	 * @param imageData the image data to save
+	 * @param project   the project to save to
+	 * @return true if a save was requested, false if <code>imageData</code> has no entry in <code>project</code>
+	 *
+	 * @see QuPathEZ#flushSaves()
+	 */
+	public static boolean saveImageDataAsync(
+			ImageData<BufferedImage> imageData,
+			Project<BufferedImage> project) {
+		if ((project != null) && (imageData != null)) {
+			var entry = project.getEntry(imageData);
+			if (entry != null) {
+				ImageDataSaveQueue.getInstance().submit(entry, imageData);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Save <code>imageData</code> back to the current project in the background.
+	 *
+	 * @param imageData the image data to save
+	 * @return true if a save was requested, false otherwise
+	 *
+	 * @see QuPathEZ#saveImageDataAsync(ImageData, Project)
+	 */
+	public static boolean saveImageDataAsync(ImageData<BufferedImage> imageData) {
+		return saveImageDataAsync(imageData, getProject());
+	}
+
+	/**
+	 * Wait for all saves requested by {@link QuPathEZ#saveImageDataAsync(ImageData, Project)} to be done.
+	 *
+	 * @throws IOException if some saves failed since the last flush
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void flushSaves() throws IOException, InterruptedException {
+		ImageDataSaveQueue.getInstance().flush();
+	}
+
+	/**
+	 * Get the number of image entries with a background save waiting or running.
+	 *
+	 * @return <code>count</code> - the number of pending saves
+	 */
+	public static int getPendingSaveCount() {
+		return ImageDataSaveQueue.getInstance().getPendingCount();
+	}
+
+	/**
+	 * Get the counters of the background saves.
+	 *
+	 * @return <code>statistics</code> - a JSON object with the number of <code>saved</code>,
+	 *         <code>skipped</code> (unchanged) and <code>superseded</code> saves
+	 */
+	public static String getSaveStatistics() {
+		return GsonTools.getInstance().toJson(ImageDataSaveQueue.getInstance().getStatistics());
+	}
+
 	/**
 	 * Create a new {@link ImageJServer} using image file <code>imagePath</code>.
 	 *
@@ -302,35 +508,213 @@ public class QuPathEZ extends QuPathFX {
 	/**
 	 * Save image <code>server</code> to JSON file <code>jsonServerPath</code>.
 	 *
+	 * <p>
+	 *     The file records the reader that opened <code>server</code>, its metadata including
+	 *     the resolutions of its pyramid, and the size and last modification time of its image files,
+	 *     so that {@link QuPathEZ#loadImageServer(String)} can reopen it without trying all readers.
+	 * </p>
+	 *
 	 * @param server         the image server to save
 	 * @param jsonServerPath the path to save image server
 	 * @throws IOException if an error occurs while saving the image server
 	 *
-	 * @see FileWriter#write(String)
-	 * @see GsonTools#getInstance()
-	 * @see Gson#toJson(Object)
+	 * @see ImageServerDescriptor
 	 */
 	public static void saveImageServer(
 			ImageServer<BufferedImage> server,
 			String jsonServerPath) throws IOException {
-		try (FileWriter writer = new FileWriter(jsonServerPath)) {
-			String serverJson = GsonTools.getInstance().toJson(server);
-			writer.write(serverJson);
-		}
+		ImageServerDescriptor.write(server, Paths.get(jsonServerPath));
 	}
 
 	/**
 	 * Load an {@link ImageServer} from JSON file <code>jsonServerPath</code>.
 	 *
+	 * <p>
+	 *     Unlike {@link QuPathEZ#createImageServer(String)}, the server is opened by the reader recorded
+	 *     by {@link QuPathEZ#saveImageServer(ImageServer, String)} rather than by trying all readers,
+	 *     and the recorded metadata is set over the metadata parsed by the reader.
+	 *     If an image file changed since the JSON file was written, the recorded metadata is ignored
+	 *     and the JSON file is updated.
+	 * </p>
+	 *
 	 * @param jsonServerPath the path to the JSON file
 	 * @return <code>server</code> - the loaded image server
-	 * @throws URISyntaxException if the image path is not a valid {@link URI}
-	 * @throws IOException if an error occurs while loading the image file
+	 * @throws Exception if an error occurs while reading the JSON file or opening the image file
 	 *
-	 * @see QuPathEZ#createImageServer
+	 * @see ImageServerDescriptor
+	 */
+	public static ImageServer<BufferedImage> loadImageServer(String jsonServerPath) throws Exception {
+		return GatewayScheduler.run("loadImageServer", () -> ImageServerDescriptor.read(Paths.get(jsonServerPath)));
+	}
+
+	/**
+	 * Load {@link ImageServer}s from JSON files <code>jsonServerPaths</code> in parallel,
+	 * using one worker per processor.
+	 *
+	 * @param jsonServerPaths the paths to the JSON files
+	 * @return <code>servers</code> - the loaded image servers, in the order of <code>jsonServerPaths</code>
+	 * @throws InterruptedException if interrupted while loading the image servers
+	 *
+	 * @see QuPathEZ#loadImageServers(List, int)
+	 */
+	public static List<ImageServer<BufferedImage>> loadImageServers(List<String> jsonServerPaths) throws InterruptedException {
+		return loadImageServers(jsonServerPaths, 0);
+	}
+
+	/**
+	 * Load {@link ImageServer}s from JSON files <code>jsonServerPaths</code> in parallel.
+	 *
+	 * <p>
+	 *     Each server is loaded as in {@link QuPathEZ#loadImageServer(String)}, by <code>nThreads</code> workers.
+	 *     A server that cannot be loaded does not stop the others: it is <b>null</b> in the returned list
+	 *     and the reason of the failure is logged.
+	 * </p>
+	 *
+	 * @param jsonServerPaths the paths to the JSON files
+	 * @param nThreads        the number of workers, or a value &lt;= 0 to use the number of processors
+	 * @return <code>servers</code> - the loaded image servers, in the order of <code>jsonServerPaths</code>
+	 * @throws InterruptedException if interrupted while loading the image servers
+	 */
+	public static List<ImageServer<BufferedImage>> loadImageServers(
+			List<String> jsonServerPaths,
+			int nThreads) throws InterruptedException {
+		return GatewayScheduler.run("loadImageServers", () -> ImageServerDescriptor.readAll(jsonServerPaths, nThreads));
+	}
+
+	/**
+	 * Create a writer of a pyramidal OME-TIFF image, whose pixels are sent tile by tile.
+	 * The tiles are <code>512</code> x <code>512</code> pixels.
+	 *
+	 * @param width     the width of the image
+	 * @param height    the height of the image
+	 * @param nChannels the number of channels of the image
+	 * @param dtype     the numpy dtype of the samples (e.g. <code>uint8</code>, <code>float32</code>)
+	 * @return <code>writer</code> - the image writer
+	 * @throws IOException if an error occurs while creating the writer
+	 *
+	 * @see QuPathEZ#createTiledImageWriter(int, int, int, String, int)
+	 */
+	public static TiledImageWriter createTiledImageWriter(
+			int width, int height,
+			int nChannels,
+			String dtype) throws IOException {
+		return createTiledImageWriter(width, height, nChannels, dtype, 512);
+	}
+
+	/**
+	 * Create a writer of a pyramidal OME-TIFF image, whose pixels are sent tile by tile.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEZ#saveImageServer(ImageServer, String)}, which writes the JSON description
+	 *     of a server, this writes pixels generated in Python (e.g. probability maps).
+	 *     Tiles are sent by {@link TiledImageWriter#writeTile(int, int, byte[])} as raw samples
+	 *     and kept in a temporary file, then {@link TiledImageWriter#write(String, String)}
+	 *     writes all resolutions in parallel, and {@link TiledImageWriter#writeToProject(String, String, Project)}
+	 *     also adds the written image to a project. The writer should be closed once done.
+	 * </p>
+	 *
+	 * @param width     the width of the image
+	 * @param height    the height of the image
+	 * @param nChannels the number of channels of the image
+	 * @param dtype     the numpy dtype of the samples (e.g. <code>uint8</code>, <code>float32</code>)
+	 * @param tileSize  the width and height of the tiles
+	 * @return <code>writer</code> - the image writer
+	 * @throws IOException if an error occurs while creating the writer
+	 *
+	 * @see TiledImageWriter
+	 */
+	public static TiledImageWriter createTiledImageWriter(
+			int width, int height,
+			int nChannels,
+			String dtype,
+			int tileSize) throws IOException {
+		return new TiledImageWriter(width, height, nChannels, dtype, tileSize);
+	}
+
+	/**
+	 * Get a shared {@link ImageServer} for image file <code>imagePath</code>,
+	 * chosen by QuPath as in {@link QuPathEZ#createImageServer(String)}.
+	 *
+	 * @param imagePath the path to the image file
+	 * @return <code>server</code> - the shared image server, to be released by {@link QuPathEZ#releaseImageServer(ImageServer)}
+	 * @throws Exception if an error occurs while opening the image file
+	 *
+	 * @see QuPathEZ#acquireImageServer(String, String)
+	 */
+	public static ImageServer<BufferedImage> acquireImageServer(String imagePath) throws Exception {
+		return acquireImageServer(imagePath, null);
+	}
+
+	/**
+	 * Get a shared {@link ImageServer} for image file <code>imagePath</code>, opened by <code>builder</code>.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEZ#createImageServer(String)}, a server that is already open for the same
+	 *     file and builder is returned as is, without opening the file and parsing its metadata again.
+	 *     Each call must be matched by a call to {@link QuPathEZ#releaseImageServer(ImageServer)}
+	 *     rather than closing the server, as it may be used by other calls.
+	 *     Unused servers stay open for a while and are closed after an idle timeout,
+	 *     or when too many servers are open (see {@link QuPathEZ#configureImageServerPool(int, double)}).
+	 * </p>
+	 *
+	 * @param imagePath the path to the image file
+	 * @param builder   <code>bioformats</code>, <code>openslide</code> or <code>imagej</code> to use that reader,
+	 *                  or <b>null</b> to let QuPath decide
+	 * @return <code>server</code> - the shared image server
+	 * @throws Exception if an error occurs while opening the image file
+	 *
+	 * @see ImageServerPool
+	 */
+	public static ImageServer<BufferedImage> acquireImageServer(String imagePath, String builder) throws Exception {
+		String name = builder == null || builder.isBlank() ? "default" : builder.toLowerCase();
+		return ImageServerPool.getInstance().acquire(name + ":" + new URI(imagePath), () -> switch (name) {
+			case "default" -> createImageServer(imagePath);
+			case "bioformats" -> createBioFormatsImageServer(imagePath);
+			case "openslide" -> createOpenslideImageServer(imagePath);
+			case "imagej" -> createImageJImageServer(imagePath);
+			default -> throw new IllegalArgumentException("Unknown image server builder " + builder);
+		});
+	}
+
+	/**
+	 * Release a server returned by {@link QuPathEZ#acquireImageServer(String, String)}.
+	 *
+	 * @param server the server to release
+	 * @return true if the server was released, false if it was not acquired from the pool
+	 */
+	public static boolean releaseImageServer(ImageServer<BufferedImage> server) {
+		return ImageServerPool.getInstance().release(server);
+	}
+
+	/**
+	 * Set the limits of the pool of shared image servers.
+	 * Servers exceeding the new limits are closed if they are not in use.
+	 *
+	 * @param maxOpenServers     the maximum number of open servers; servers in use are never closed,
+	 *                           so this can be exceeded while more servers are in use at the same time
+	 * @param idleTimeoutSeconds the time an unused server stays open, in seconds
+	 *
+	 * @see QuPathEZ#acquireImageServer(String, String)
+	 */
+	public static void configureImageServerPool(int maxOpenServers, double idleTimeoutSeconds) {
+		ImageServerPool.getInstance().configure(maxOpenServers, Math.round(idleTimeoutSeconds * 1000));
+	}
+
+	/**
+	 * Close all shared image servers that are not in use.
+	 */
+	public static void clearImageServerPool() {
+		ImageServerPool.getInstance().clear();
+	}
+
+	/**
+	 * Get the counters of the pool of shared image servers.
+	 *
+	 * @return <code>statistics</code> - a JSON object with the number of <code>open</code> and <code>inUse</code> servers,
+	 *         of <code>hits</code>, <code>misses</code> and <code>evictions</code>, and the limits of the pool
 	 */
-	public static ImageServer<BufferedImage> loadImageServer(String jsonServerPath) throws URISyntaxException, IOException {
-		return createImageServer(jsonServerPath);
+	public static String getImageServerPoolStatistics() {
+		return GsonTools.getInstance().toJson(ImageServerPool.getInstance().getStatistics());
 	}
 
 	/**
@@ -341,6 +725,7 @@ public class QuPathEZ extends QuPathFX {
 	 * If the image type setting is set to {@link PathPrefs.ImageTypeSetting#PROMPT},
 	 * a prompt will be displayed to set the image type. <br>
 	 * If the image type setting is set to {@link PathPrefs.ImageTypeSetting#AUTO_ESTIMATE},
+	 * or to {@link PathPrefs.ImageTypeSetting#PROMPT} without the QuPath GUI,
 	 * the image type will be automatically set.
 	 * </p>
 	 * @param imageData the image data to set the image type
@@ -350,7 +735,7 @@ public class QuPathEZ extends QuPathFX {
 			var setType = PathPrefs.imageTypeSettingProperty().get();
 			if (setType == PathPrefs.ImageTypeSetting.AUTO_ESTIMATE || setType == PathPrefs.ImageTypeSetting.PROMPT) {
 				ImageData.ImageType type = estimatedImageType(imageData.getServer());
-				if (setType == PathPrefs.ImageTypeSetting.PROMPT) {
+				if (setType == PathPrefs.ImageTypeSetting.PROMPT && isQuPathGUIAvailable()) {
 					ImageDetailsPane.promptToSetImageType(imageData, type);
 				} else {
 					imageData.setImageType(type);
@@ -409,6 +794,1433 @@ public class QuPathEZ extends QuPathFX {
 		entry.setThumbnail(ProjectCommands.getThumbnailRGB(server));
 	}
 
+	/**
+	 * Refresh the thumbnails of all entries of <code>project</code> in the background,
+	 * skipping the ones more recent than their image and using one worker per processor.
+	 *
+	 * @param project the project whose thumbnails should be refreshed
+	 * @return <code>refresh</code> - the handle to poll the progress of the refresh
+	 *
+	 * @see QuPathEZ#refreshThumbnails(Project, int, boolean)
+	 */
+	public static ThumbnailRefresh refreshThumbnails(Project<BufferedImage> project) {
+		return refreshThumbnails(project, 0, false);
+	}
+
+	/**
+	 * Refresh the thumbnails of all entries of <code>project</code> in the background.
+	 *
+	 * <p>
+	 *     Unlike calling {@link QuPathEZ#refreshThumbnail(ProjectImageEntry, ImageServer)} for each entry,
+	 *     this needs a single gateway call: the image of each entry is opened from its server builder
+	 *     and its thumbnail rendered by <code>nThreads</code> workers, and all thumbnails are
+	 *     written once they are rendered. Unless <code>force</code> is true, entries whose thumbnail
+	 *     is more recent than all files of their image are skipped.
+	 *     This returns immediately; the progress can be polled with {@link ThumbnailRefresh#getProgress()}.
+	 * </p>
+	 *
+	 * @param project  the project whose thumbnails should be refreshed
+	 * @param nThreads the number of workers, or a value &lt;= 0 to use the number of processors
+	 * @param force    true to refresh all thumbnails, false to skip the ones more recent than their image
+	 * @return <code>refresh</code> - the handle to poll the progress of the refresh
+	 *
+	 * @see ThumbnailRefresh
+	 */
+	public static ThumbnailRefresh refreshThumbnails(Project<BufferedImage> project, int nThreads, boolean force) {
+		return new ThumbnailRefresh(project, nThreads, force);
+	}
+
+	/**
+	 * Read the first z-slice and first time point of image <code>server</code>
+	 * at <code>downsample</code> and return it encoded in <code>format</code>.
+	 * The result is served from the shared tile cache when possible.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param format     the format of the returned image
+	 * @return <code>bytes</code> - the encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, RegionRequest, String)
+	 */
+	public static byte[] getImageBytes(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			String format) throws IOException {
+		return getImageBytes(server, downsample, 0, 0, server.getWidth(), server.getHeight(), format);
+	}
+
+	/**
+	 * Read a portion of the first z-slice and first time point of image <code>server</code>
+	 * at <code>downsample</code> and return it encoded in <code>format</code>.
+	 * The result is served from the shared tile cache when possible.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @param format     the format of the returned image
+	 * @return <code>bytes</code> - the encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, RegionRequest, String)
+	 */
+	public static byte[] getImageBytes(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height,
+			String format) throws IOException {
+		return getImageBytes(server, downsample, x, y, width, height, 0, 0, format);
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> at <code>downsample</code>
+	 * and return it encoded in <code>format</code>.
+	 * The result is served from the shared tile cache when possible.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @param z          the z-slice of the image to retrieve
+	 * @param t          the time point of the image to retrieve
+	 * @param format     the format of the returned image
+	 * @return <code>bytes</code> - the encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, RegionRequest, String)
+	 */
+	public static byte[] getImageBytes(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height,
+			int z, int t,
+			String format) throws IOException {
+		var request = RegionRequest.createInstance(server.getPath(), downsample, x, y, width, height, z, t);
+		return getImageBytes(server, request, format);
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> and return it encoded in <code>format</code>.
+	 *
+	 * <p>
+	 *     This hides {@link QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String)}
+	 *     so that, once enabled by {@link QuPathEZ#setTileCacheMaxBytes(long)}, encoded regions are kept
+	 *     in an off-heap cache shared by all gateway clients, and requesting the same region again
+	 *     does not read nor encode it again. See {@link QuPathEZ#getTileCacheStatistics()}.
+	 * </p>
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param format  the format of the returned image
+	 * @return <code>bytes</code> - the encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String)
+	 */
+	public static byte[] getImageBytes(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			String format) throws IOException {
+		return GatewayScheduler.run("getImageBytes", () -> encodeRegion(server, request, format));
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> and return it encoded in <code>format</code>,
+	 * as {@link QuPathEZ#getImageBytes(ImageServer, RegionRequest, String)} but without going through
+	 * {@link GatewayScheduler} nor {@link GatewayMetrics}.
+	 * This is what code already admitted by the scheduler should call, in particular from worker threads:
+	 * they do not hold the permits of the call that started them, and waiting for new permits there
+	 * while the outer call keeps its own would deadlock.
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param format  the format of the returned image
+	 * @return the encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 */
+	static byte[] encodeRegion(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			String format) throws IOException {
+		return TileCache.getInstance().get(server, request, format.toLowerCase(),
+				() -> QuPathEntryPoint.getImageBytes(server, request, format));
+	}
+
+	/**
+	 * Read the first z-slice and first time point of image <code>server</code>
+	 * at <code>downsample</code> and return it encoded in <code>format</code> as a Base64 string.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param format     the format of the returned image
+	 * @return <code>base64</code> - the Base64 encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, double, String)
+	 */
+	public static String getImageBase64(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			String format) throws IOException {
+		return Base64.getEncoder().encodeToString(getImageBytes(server, downsample, format));
+	}
+
+	/**
+	 * Read a portion of the first z-slice and first time point of image <code>server</code>
+	 * at <code>downsample</code> and return it encoded in <code>format</code> as a Base64 string.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @param format     the format of the returned image
+	 * @return <code>base64</code> - the Base64 encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, double, int, int, int, int, String)
+	 */
+	public static String getImageBase64(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height,
+			String format) throws IOException {
+		return Base64.getEncoder().encodeToString(getImageBytes(server, downsample, x, y, width, height, format));
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> at <code>downsample</code>
+	 * and return it encoded in <code>format</code> as a Base64 string.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @param z          the z-slice of the image to retrieve
+	 * @param t          the time point of the image to retrieve
+	 * @param format     the format of the returned image
+	 * @return <code>base64</code> - the Base64 encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, double, int, int, int, int, int, int, String)
+	 */
+	public static String getImageBase64(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height,
+			int z, int t,
+			String format) throws IOException {
+		return Base64.getEncoder().encodeToString(getImageBytes(server, downsample, x, y, width, height, z, t, format));
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> and return it encoded
+	 * in <code>format</code> as a Base64 string.
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param format  the format of the returned image
+	 * @return <code>base64</code> - the Base64 encoded image
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getImageBytes(ImageServer, RegionRequest, String)
+	 */
+	public static String getImageBase64(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			String format) throws IOException {
+		return Base64.getEncoder().encodeToString(getImageBytes(server, request, format));
+	}
+
+	/**
+	 * Read all z-slices and time points of image <code>server</code> at <code>downsample</code>
+	 * and return them as an ImageJ TIFF stack.
+	 * The result is served from the shared tile cache when possible.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @return <code>bytes</code> - the TIFF stack
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getTiffStack(ImageServer, double, int, int, int, int)
+	 */
+	public static byte[] getTiffStack(
+			ImageServer<BufferedImage> server,
+			double downsample) throws IOException {
+		return getTiffStack(server, downsample, 0, 0, server.getWidth(), server.getHeight());
+	}
+
+	/**
+	 * Read a portion of all z-slices and time points of image <code>server</code>
+	 * at <code>downsample</code> and return them as an ImageJ TIFF stack.
+	 *
+	 * <p>
+	 *     This hides {@link QuPathEntryPoint#getTiffStack(ImageServer, double, int, int, int, int)}
+	 *     so that stacks are kept in the off-heap cache shared by all gateway clients, once enabled.
+	 * </p>
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @return <code>bytes</code> - the TIFF stack
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEntryPoint#getTiffStack(ImageServer, double, int, int, int, int)
+	 */
+	public static byte[] getTiffStack(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height) throws IOException {
+		var request = RegionRequest.createInstance(server.getPath(), downsample, x, y, width, height);
+		return GatewayScheduler.run("getTiffStack", () -> TileCache.getInstance().get(server, request, TILE_CACHE_TIFF_STACK,
+				() -> QuPathEntryPoint.getTiffStack(server, downsample, x, y, width, height)));
+	}
+
+	/**
+	 * Read all z-slices and time points of image <code>server</code> at <code>downsample</code>
+	 * and return them as an ImageJ TIFF stack encoded as a Base64 string.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @return <code>base64</code> - the Base64 encoded TIFF stack
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getTiffStack(ImageServer, double)
+	 */
+	public static String getTiffStackBase64(
+			ImageServer<BufferedImage> server,
+			double downsample) throws IOException {
+		return Base64.getEncoder().encodeToString(getTiffStack(server, downsample));
+	}
+
+	/**
+	 * Read a portion of all z-slices and time points of image <code>server</code>
+	 * at <code>downsample</code> and return them as an ImageJ TIFF stack encoded as a Base64 string.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @return <code>base64</code> - the Base64 encoded TIFF stack
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getTiffStack(ImageServer, double, int, int, int, int)
+	 */
+	public static String getTiffStackBase64(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height) throws IOException {
+		return Base64.getEncoder().encodeToString(getTiffStack(server, downsample, x, y, width, height));
+	}
+
+	/**
+	 * Get the counters of the tile cache used by
+	 * {@link QuPathEZ#getImageBytes(ImageServer, RegionRequest, String) getImageBytes}
+	 * and {@link QuPathEZ#getTiffStack(ImageServer, double, int, int, int, int) getTiffStack}.
+	 *
+	 * @return <code>statistics</code> - a JSON object with <code>hits</code>, <code>misses</code>,
+	 *         <code>joined</code> (requests that waited for the load of the same region by another request),
+	 *         <code>evictions</code>, <code>entries</code>, <code>bytes</code> and <code>maxBytes</code>
+	 */
+	public static String getTileCacheStatistics() {
+		return GsonTools.getInstance().toJson(TileCache.getInstance().getStatistics());
+	}
+
+	/**
+	 * Set the maximum size of the tile cache.
+	 * The least recently used regions are evicted when it is exceeded.
+	 *
+	 * <p>
+	 *     The cache is disabled by default. Regions are stored off-heap, outside the memory
+	 *     QuPath is allowed to use, and a region is read again when the size or last modification
+	 *     time of its image files changed.
+	 * </p>
+	 *
+	 * @param maxBytes the maximum size in bytes, or 0 to disable the cache
+	 */
+	public static void setTileCacheMaxBytes(long maxBytes) {
+		TileCache.getInstance().setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Remove all regions of image <code>server</code> from the tile cache,
+	 * e.g. after its pixels have been changed without changing its files.
+	 *
+	 * @param server the image server whose regions should be removed
+	 * @return <code>count</code> - the number of removed regions
+	 */
+	public static int invalidateTileCache(ImageServer<BufferedImage> server) {
+		return TileCache.getInstance().invalidate(server.getPath());
+	}
+
+	/**
+	 * Remove all regions from the tile cache.
+	 */
+	public static void clearTileCache() {
+		TileCache.getInstance().clear();
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> into a new shared memory file
+	 * and return a JSON descriptor of the written pixels.
+	 * The pixels are written interleaved (<code>HWC</code>).
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @return <code>descriptor</code> - the JSON descriptor of the written pixels
+	 * @throws IOException if an error occurs while reading or writing the image
+	 *
+	 * @see QuPathEZ#getImageSharedMemory(ImageServer, RegionRequest, boolean, String, long)
+	 */
+	public static String getImageSharedMemory(
+			ImageServer<BufferedImage> server,
+			RegionRequest request) throws IOException {
+		return getImageSharedMemory(server, request, false);
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> into a new shared memory file
+	 * and return a JSON descriptor of the written pixels.
+	 *
+	 * <p>
+	 *     The file is created under <code>/dev/shm</code> when available,
+	 *     otherwise under the temporary directory. It should be released by
+	 *     {@link QuPathEZ#releaseSharedMemory(String)} once it has been consumed.
+	 * </p>
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param planar  true to write the pixels planar (<code>CHW</code>),
+	 *                false to write them interleaved (<code>HWC</code>)
+	 * @return <code>descriptor</code> - the JSON descriptor of the written pixels
+	 * @throws IOException if an error occurs while reading or writing the image
+	 *
+	 * @see QuPathEZ#getImageSharedMemory(ImageServer, RegionRequest, boolean, String, long)
+	 */
+	public static String getImageSharedMemory(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			boolean planar) throws IOException {
+		var path = PixelBuffers.createSharedMemoryFile(".raw");
+		return getImageSharedMemory(server, request, planar, path.toString(), 0);
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> into file <code>path</code>
+	 * at byte <code>offset</code> and return a JSON descriptor of the written pixels.
+	 *
+	 * <p>
+	 *     The raster returned by {@link ImageServer#readRegion(RegionRequest)} is written
+	 *     as raw little-endian samples through a memory-mapped buffer, so no image encoding
+	 *     or socket transfer is involved. The descriptor contains <code>path</code>,
+	 *     <code>offset</code>, <code>nbytes</code>, <code>shape</code>, <code>dtype</code>,
+	 *     <code>order</code> and <code>channels</code>, so that the pixels can be read
+	 *     in Python by <code>np.memmap(path, dtype, mode='r', offset=offset, shape=shape)</code>.
+	 * </p>
+	 * <p>
+	 *     Reusing the same <code>path</code> (e.g. a preallocated file under <code>/dev/shm</code>)
+	 *     avoids creating a new file for every request.
+	 * </p>
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param planar  true to write the pixels planar (<code>CHW</code>),
+	 *                false to write them interleaved (<code>HWC</code>)
+	 * @param path    the file to write to, which is created or grown as needed
+	 * @param offset  the byte offset in <code>path</code> to write at
+	 * @return <code>descriptor</code> - the JSON descriptor of the written pixels
+	 * @throws IOException if an error occurs while reading or writing the image
+	 *
+	 * @see ImageServer#readRegion(RegionRequest)
+	 */
+	public static String getImageSharedMemory(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			boolean planar,
+			String path,
+			long offset) throws IOException {
+		return GatewayScheduler.run("getImageSharedMemory", () -> {
+			var img = server.readRegion(request);
+			var descriptor = PixelBuffers.describe(server, img, planar);
+			var buffer = PixelBuffers.map(Paths.get(path), offset, descriptor.nbytes);
+			// no force(): other processes mapping the file see the written pages without an msync
+			PixelBuffers.write(img, server.getPixelType(), planar, buffer);
+			descriptor.path = path;
+			descriptor.offset = offset;
+			return GsonTools.getInstance().toJson(descriptor);
+		});
+	}
+
+	/**
+	 * Delete a shared memory file created by
+	 * {@link QuPathEZ#getImageSharedMemory(ImageServer, RegionRequest, boolean)}.
+	 * Other files are left untouched.
+	 *
+	 * @param path the path of the shared memory file
+	 * @return true if the file was deleted, false otherwise
+	 * @throws IOException if an error occurs while deleting the file
+	 */
+	public static boolean releaseSharedMemory(String path) throws IOException {
+		return PixelBuffers.releaseSharedMemoryFile(path);
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> and return its raw pixels
+	 * interleaved (<code>HWC</code>) after a compact header.
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @return <code>bytes</code> - the header followed by the raw pixels
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getRawPixels(ImageServer, RegionRequest, boolean)
+	 */
+	public static byte[] getRawPixels(
+			ImageServer<BufferedImage> server,
+			RegionRequest request) throws IOException {
+		return getRawPixels(server, request, false);
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> and return its raw pixels
+	 * after a compact header.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String) getImageBytes},
+	 *     no image writer is involved: the samples of the raster are copied as they are.
+	 *     The 32-byte little-endian header holds the magic <code>QPRW</code>, the header size,
+	 *     the width, the height, the number of channels, the dtype code
+	 *     (0 uint8, 1 int8, 2 uint16, 3 int16, 4 uint32, 5 int32, 6 float32, 7 float64)
+	 *     and whether the pixels are planar, each as an <code>int32</code>.
+	 * </p>
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param planar  true to return the pixels planar (<code>CHW</code>),
+	 *                false to return them interleaved (<code>HWC</code>)
+	 * @return <code>bytes</code> - the header followed by the raw pixels
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see ImageServer#readRegion(RegionRequest)
+	 */
+	public static byte[] getRawPixels(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			boolean planar) throws IOException {
+		return GatewayScheduler.run("getRawPixels",
+				() -> PixelBuffers.toRawBytes(server.readRegion(request), server.getPixelType(), planar));
+	}
+
+	/**
+	 * Read a portion of image <code>server</code> at <code>downsample</code>
+	 * and return its raw pixels after a compact header.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param x          the x-coordinate of the portion of the image to retrieve
+	 * @param y          the y-coordinate of the portion of the image to retrieve
+	 * @param width      the width of the portion of the image to retrieve
+	 * @param height     the height of the portion of the image to retrieve
+	 * @param z          the z-slice of the image to retrieve
+	 * @param t          the time point of the image to retrieve
+	 * @param planar     true to return the pixels planar (<code>CHW</code>),
+	 *                   false to return them interleaved (<code>HWC</code>)
+	 * @return <code>bytes</code> - the header followed by the raw pixels
+	 * @throws IOException if an error occurs while reading the image
+	 *
+	 * @see QuPathEZ#getRawPixels(ImageServer, RegionRequest, boolean)
+	 */
+	public static byte[] getRawPixels(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int x, int y, int width, int height,
+			int z, int t,
+			boolean planar) throws IOException {
+		var request = RegionRequest.createInstance(server.getPath(), downsample, x, y, width, height, z, t);
+		return getRawPixels(server, request, planar);
+	}
+
+	/**
+	 * Read many portions of image <code>server</code> concurrently and
+	 * return them encoded in <code>format</code>, packed into a single buffer.
+	 *
+	 * <p>
+	 *     The buffer starts with the magic <code>QPRB</code>, the number of regions <code>n</code>
+	 *     as an <code>int32</code> and <code>n + 1</code> <code>int64</code> offsets
+	 *     (all little-endian); region <code>i</code> occupies
+	 *     <code>buffer[offsets[i]:offsets[i+1]]</code>. This replaces <code>n</code>
+	 *     gateway round-trips with a single one, and lets the image readers work in parallel
+	 *     (see {@link QuPathEZ#setBatchParallelism(int)}).
+	 * </p>
+	 *
+	 * @param server   the image server to read from
+	 * @param requests the regions to read
+	 * @param format   <code>raw</code> for raw pixels (see {@link QuPathEZ#getRawPixels(ImageServer, RegionRequest)}),
+	 *                 or any format accepted by {@link QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String) getImageBytes}
+	 * @return <code>bytes</code> - the packed regions
+	 * @throws IOException if an error occurs while reading one of the regions
+	 */
+	public static byte[] getImageBytesBatch(
+			ImageServer<BufferedImage> server,
+			List<RegionRequest> requests,
+			String format) throws IOException {
+		return GatewayScheduler.run("getImageBytesBatch", () -> RegionBatchReader.read(server, requests, format, false));
+	}
+
+	/**
+	 * Read many portions of image <code>server</code> at <code>downsample</code> concurrently and
+	 * return them encoded in <code>format</code>, packed into a single buffer.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param regions    the packed regions to read, as consecutive
+	 *                   <code>x, y, width, height, z, t</code> values
+	 * @param format     <code>raw</code> for raw pixels, or any format accepted by
+	 *                   {@link QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String) getImageBytes}
+	 * @return <code>bytes</code> - the packed regions
+	 * @throws IOException if an error occurs while reading one of the regions
+	 *
+	 * @see QuPathEZ#getImageBytesBatch(ImageServer, List, String)
+	 */
+	public static byte[] getImageBytesBatch(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int[] regions,
+			String format) throws IOException {
+		return getImageBytesBatch(server, RegionBatchReader.toRequests(server, downsample, regions), format);
+	}
+
+	/**
+	 * Read many portions of image <code>server</code> concurrently and
+	 * return their raw pixels packed into a single buffer.
+	 *
+	 * @param server   the image server to read from
+	 * @param requests the regions to read
+	 * @param planar   true to return the pixels planar (<code>CHW</code>),
+	 *                 false to return them interleaved (<code>HWC</code>)
+	 * @return <code>bytes</code> - the packed regions, each one with its raw pixel header
+	 * @throws IOException if an error occurs while reading one of the regions
+	 *
+	 * @see QuPathEZ#getImageBytesBatch(ImageServer, List, String)
+	 * @see QuPathEZ#getRawPixels(ImageServer, RegionRequest, boolean)
+	 */
+	public static byte[] getRawPixelsBatch(
+			ImageServer<BufferedImage> server,
+			List<RegionRequest> requests,
+			boolean planar) throws IOException {
+		return GatewayScheduler.run("getRawPixelsBatch",
+				() -> RegionBatchReader.read(server, requests, RegionBatchReader.FORMAT_RAW, planar));
+	}
+
+	/**
+	 * Read many portions of image <code>server</code> at <code>downsample</code> concurrently and
+	 * return their raw pixels packed into a single buffer.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample to use when reading the image
+	 * @param regions    the packed regions to read, as consecutive
+	 *                   <code>x, y, width, height, z, t</code> values
+	 * @param planar     true to return the pixels planar (<code>CHW</code>),
+	 *                   false to return them interleaved (<code>HWC</code>)
+	 * @return <code>bytes</code> - the packed regions, each one with its raw pixel header
+	 * @throws IOException if an error occurs while reading one of the regions
+	 *
+	 * @see QuPathEZ#getRawPixelsBatch(ImageServer, List, boolean)
+	 */
+	public static byte[] getRawPixelsBatch(
+			ImageServer<BufferedImage> server,
+			double downsample,
+			int[] regions,
+			boolean planar) throws IOException {
+		return getRawPixelsBatch(server, RegionBatchReader.toRequests(server, downsample, regions), planar);
+	}
+
+	/**
+	 * Set the maximum number of regions read at the same time by the batch methods.
+	 *
+	 * @param parallelism the number of concurrent reads, or a value &lt;= 0 to use the number of processors
+	 *
+	 * @see QuPathEZ#getImageBytesBatch(ImageServer, List, String)
+	 */
+	public static void setBatchParallelism(int parallelism) {
+		RegionBatchReader.setParallelism(parallelism);
+	}
+
+	/**
+	 * Get the maximum number of regions read at the same time by the batch methods.
+	 *
+	 * @return the number of concurrent reads
+	 */
+	public static int getBatchParallelism() {
+		return RegionBatchReader.getParallelism();
+	}
+
+	/**
+	 * Write all measurements of <code>pathObjects</code> as columns in a new shared memory file
+	 * and return a JSON descriptor of the written columns.
+	 *
+	 * @param pathObjects the objects to export, one per row
+	 * @return <code>descriptor</code> - the JSON descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the columns
+	 *
+	 * @see QuPathEZ#getMeasurementColumns(Collection, List, String)
+	 */
+	public static String getMeasurementColumns(Collection<? extends PathObject> pathObjects) throws IOException {
+		return getMeasurementColumns(pathObjects, MeasurementColumns.getAllNames(pathObjects));
+	}
+
+	/**
+	 * Write the <code>columns</code> measurements of <code>pathObjects</code> in a new shared memory file
+	 * and return a JSON descriptor of the written columns.
+	 * The file should be released by {@link QuPathEZ#releaseSharedMemory(String)} once it has been consumed.
+	 *
+	 * @param pathObjects the objects to export, one per row
+	 * @param columns     the names of the measurements to export
+	 * @return <code>descriptor</code> - the JSON descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the columns
+	 *
+	 * @see QuPathEZ#getMeasurementColumns(Collection, List, String)
+	 */
+	public static String getMeasurementColumns(
+			Collection<? extends PathObject> pathObjects,
+			List<String> columns) throws IOException {
+		var path = PixelBuffers.createSharedMemoryFile(".cols");
+		return getMeasurementColumns(pathObjects, columns, path.toString());
+	}
+
+	/**
+	 * Write the <code>columns</code> measurements of <code>pathObjects</code> to file <code>path</code>
+	 * and return a JSON descriptor of the written columns.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEntryPoint#getMeasurementTable getMeasurementTable}, no text is created:
+	 *     each measurement is written as a column of little-endian <code>float64</code>
+	 *     (<code>NaN</code> when missing) through a memory-mapped buffer, in the order of <code>pathObjects</code>.
+	 *     The descriptor contains <code>path</code>, <code>nRows</code> and, for each column,
+	 *     its <code>name</code> and byte <code>offset</code>, so that a column can be read in Python
+	 *     without copy by <code>np.memmap(path, '&lt;f8', mode='r', offset=offset, shape=(nRows,))</code>.
+	 *     The same directory is also written in the header of the file.
+	 * </p>
+	 *
+	 * @param pathObjects the objects to export, one per row
+	 * @param columns     the names of the measurements to export
+	 * @param path        the file to write, which is overwritten
+	 * @return <code>descriptor</code> - the JSON descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the columns
+	 *
+	 * @see MeasurementList#get(String)
+	 */
+	public static String getMeasurementColumns(
+			Collection<? extends PathObject> pathObjects,
+			List<String> columns,
+			String path) throws IOException {
+		return GatewayScheduler.run("getMeasurementColumns",
+				() -> GsonTools.getInstance().toJson(MeasurementColumns.write(pathObjects, columns, Paths.get(path))));
+	}
+
+	/**
+	 * Write all measurements of the detections of <code>imageData</code> as columns
+	 * in a new shared memory file and return a JSON descriptor of the written columns.
+	 *
+	 * @param imageData the image data containing the detections
+	 * @return <code>descriptor</code> - the JSON descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the columns
+	 *
+	 * @see QuPathEZ#getMeasurementColumns(Collection, List, String)
+	 */
+	public static String getDetectionMeasurementColumns(ImageData<BufferedImage> imageData) throws IOException {
+		return getMeasurementColumns(imageData.getHierarchy().getDetectionObjects());
+	}
+
+	/**
+	 * Write <code>pathObjects</code> to file <code>path</code> as a GeoJSON <code>FeatureCollection</code>,
+	 * one feature at a time.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEntryPoint#toFeatureCollection toFeatureCollection},
+	 *     the GeoJSON is never held in memory as a whole: each feature is written
+	 *     to the file as soon as it is created.
+	 * </p>
+	 *
+	 * @param pathObjects the objects to write
+	 * @param path        the file to write, which is overwritten
+	 * @param gzip        true to compress the file with gzip
+	 * @param precision   the number of decimals of the coordinates,
+	 *                    or a negative value to keep them unchanged
+	 * @return <code>count</code> - the number of written features
+	 * @throws IOException if an error occurs while writing the file
+	 *
+	 * @see GeoJsonStream
+	 */
+	public static long writeGeoJson(
+			Collection<? extends PathObject> pathObjects,
+			String path,
+			boolean gzip,
+			int precision) throws IOException {
+		return GatewayScheduler.run("writeGeoJson",
+				() -> GeoJsonStream.write(pathObjects.iterator(), Paths.get(path), gzip, precision));
+	}
+
+	/**
+	 * Write all objects of <code>hierarchy</code> to file <code>path</code>
+	 * as a GeoJSON <code>FeatureCollection</code>, one feature at a time.
+	 * The hierarchy is walked depth-first, without collecting its objects first.
+	 *
+	 * @param hierarchy the hierarchy to write
+	 * @param path      the file to write, which is overwritten
+	 * @param gzip      true to compress the file with gzip
+	 * @param precision the number of decimals of the coordinates,
+	 *                  or a negative value to keep them unchanged
+	 * @return <code>count</code> - the number of written features
+	 * @throws IOException if an error occurs while writing the file
+	 *
+	 * @see QuPathEZ#writeGeoJson(Collection, String, boolean, int)
+	 */
+	public static long writeGeoJson(
+			PathObjectHierarchy hierarchy,
+			String path,
+			boolean gzip,
+			int precision) throws IOException {
+		return GatewayScheduler.run("writeGeoJson",
+				() -> GeoJsonStream.write(GeoJsonStream.iterate(hierarchy), Paths.get(path), gzip, precision));
+	}
+
+	/**
+	 * Stream <code>pathObjects</code> as GeoJSON features,
+	 * to be pulled in chunks with {@link GeoJsonStream#nextChunk(int)}.
+	 *
+	 * @param pathObjects the objects to stream
+	 * @param precision   the number of decimals of the coordinates,
+	 *                    or a negative value to keep them unchanged
+	 * @return <code>stream</code> - the GeoJSON stream
+	 *
+	 * @see GeoJsonStream
+	 */
+	public static GeoJsonStream streamGeoJson(
+			Collection<? extends PathObject> pathObjects,
+			int precision) {
+		return GeoJsonStream.of(pathObjects, precision);
+	}
+
+	/**
+	 * Stream all objects of <code>hierarchy</code> as GeoJSON features,
+	 * to be pulled in chunks with {@link GeoJsonStream#nextChunk(int)}.
+	 * The hierarchy is walked depth-first as the chunks are pulled.
+	 *
+	 * @param hierarchy the hierarchy to stream
+	 * @param precision the number of decimals of the coordinates,
+	 *                  or a negative value to keep them unchanged
+	 * @return <code>stream</code> - the GeoJSON stream
+	 *
+	 * @see GeoJsonStream
+	 */
+	public static GeoJsonStream streamGeoJson(
+			PathObjectHierarchy hierarchy,
+			int precision) {
+		return new GeoJsonStream(GeoJsonStream.iterate(hierarchy), precision);
+	}
+
+	/**
+	 * Get the detections of <code>imageData</code> intersecting a rectangle of the image.
+	 *
+	 * @param imageData the image data to query
+	 * @param x         the x-coordinate of the rectangle, in full resolution pixels
+	 * @param y         the y-coordinate of the rectangle, in full resolution pixels
+	 * @param width     the width of the rectangle, in full resolution pixels
+	 * @param height    the height of the rectangle, in full resolution pixels
+	 * @param z         the z-slice of the rectangle
+	 * @param t         the time point of the rectangle
+	 * @return <code>pathObjects</code> - the found detections
+	 *
+	 * @see QuPathEZ#getObjectsInRegion(ImageData, ImageRegion, String, boolean)
+	 */
+	public static List<PathObject> getDetectionsInRegion(
+			ImageData<BufferedImage> imageData,
+			int x, int y, int width, int height,
+			int z, int t) {
+		return getObjectsInRegion(imageData, ImageRegion.createInstance(x, y, width, height, z, t), RegionQuery.TYPE_DETECTION, false);
+	}
+
+	/**
+	 * Get the objects of <code>imageData</code> intersecting <code>region</code>
+	 * (e.g. a {@link RegionRequest} of a field of view or a training patch).
+	 *
+	 * <p>
+	 *     Unlike filtering the result of {@link QuPathEntryPoint#toGeoJsonFeatureList toGeoJsonFeatureList}
+	 *     or of a measurement table, this uses the spatial index of the hierarchy, which is kept up to date
+	 *     when objects are added or removed: the cost of a query depends on the number of objects
+	 *     near the region, not on the number of objects of the image.
+	 * </p>
+	 *
+	 * @param imageData      the image data to query
+	 * @param region         the region of the image, including its z-slice and time point
+	 * @param type           <code>detection</code>, <code>annotation</code> or <code>all</code>
+	 * @param centroidInside true to keep only the objects whose centroid is inside <code>region</code>,
+	 *                       so that each object is found in a single patch of a grid
+	 * @return <code>pathObjects</code> - the found objects
+	 *
+	 * @see PathObjectHierarchy#getAllDetectionsForRegion(ImageRegion, Collection)
+	 */
+	public static List<PathObject> getObjectsInRegion(
+			ImageData<BufferedImage> imageData,
+			ImageRegion region,
+			String type,
+			boolean centroidInside) {
+		return GatewayScheduler.run("getObjectsInRegion",
+				() -> RegionQuery.find(imageData.getHierarchy(), region, type, centroidInside));
+	}
+
+	/**
+	 * Get the objects of <code>imageData</code> intersecting <code>region</code>
+	 * as a JSON array of GeoJSON features.
+	 *
+	 * @param imageData      the image data to query
+	 * @param region         the region of the image, including its z-slice and time point
+	 * @param type           <code>detection</code>, <code>annotation</code> or <code>all</code>
+	 * @param centroidInside true to keep only the objects whose centroid is inside <code>region</code>
+	 * @param precision      the number of decimals of the coordinates,
+	 *                       or a negative value to keep them unchanged
+	 * @return <code>features</code> - the JSON array of features
+	 * @throws IOException if an error occurs while writing the features
+	 *
+	 * @see QuPathEZ#getObjectsInRegion(ImageData, ImageRegion, String, boolean)
+	 */
+	public static String getGeoJsonInRegion(
+			ImageData<BufferedImage> imageData,
+			ImageRegion region,
+			String type,
+			boolean centroidInside,
+			int precision) throws IOException {
+		// admitted once for the query and the conversion, rather than once for each of them
+		return GatewayScheduler.run("getGeoJsonInRegion", () -> {
+			var pathObjects = RegionQuery.find(imageData.getHierarchy(), region, type, centroidInside);
+			return GeoJsonStream.of(pathObjects, precision).writeChunk(pathObjects.size());
+		});
+	}
+
+	/**
+	 * Get the IDs of the objects of <code>imageData</code> intersecting <code>region</code>.
+	 *
+	 * @param imageData      the image data to query
+	 * @param region         the region of the image, including its z-slice and time point
+	 * @param type           <code>detection</code>, <code>annotation</code> or <code>all</code>
+	 * @param centroidInside true to keep only the objects whose centroid is inside <code>region</code>
+	 * @return <code>ids</code> - the IDs of the found objects
+	 *
+	 * @see QuPathEZ#getObjectsInRegion(ImageData, ImageRegion, String, boolean)
+	 */
+	public static String[] getObjectIdsInRegion(
+			ImageData<BufferedImage> imageData,
+			ImageRegion region,
+			String type,
+			boolean centroidInside) {
+		return getObjectsInRegion(imageData, region, type, centroidInside).stream()
+				.map(pathObject -> pathObject.getID().toString())
+				.toArray(String[]::new);
+	}
+
+	/**
+	 * Write the <code>columns</code> measurements of the objects of <code>imageData</code>
+	 * intersecting <code>region</code> in a new shared memory file
+	 * and return a JSON descriptor of the written columns.
+	 *
+	 * @param imageData      the image data to query
+	 * @param region         the region of the image, including its z-slice and time point
+	 * @param type           <code>detection</code>, <code>annotation</code> or <code>all</code>
+	 * @param centroidInside true to keep only the objects whose centroid is inside <code>region</code>
+	 * @param columns        the names of the measurements to export, or <b>null</b> for all of them
+	 * @return <code>descriptor</code> - the JSON descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the columns
+	 *
+	 * @see QuPathEZ#getMeasurementColumns(Collection, List, String)
+	 */
+	public static String getMeasurementColumnsInRegion(
+			ImageData<BufferedImage> imageData,
+			ImageRegion region,
+			String type,
+			boolean centroidInside,
+			List<String> columns) throws IOException {
+		var path = PixelBuffers.createSharedMemoryFile(".cols");
+		return GatewayScheduler.run("getMeasurementColumnsInRegion", () -> {
+			var pathObjects = RegionQuery.find(imageData.getHierarchy(), region, type, centroidInside);
+			var names = columns == null ? MeasurementColumns.getAllNames(pathObjects) : columns;
+			return GsonTools.getInstance().toJson(MeasurementColumns.write(pathObjects, names, path));
+		});
+	}
+
+	/**
+	 * Select the objects of <code>imageData</code> matching all filters.
+	 *
+	 * @param imageData  the image data to query
+	 * @param objectType <code>detection</code> (including cells and tiles), <code>cell</code>, <code>tile</code>,
+	 *                   <code>annotation</code>, or <b>null</b> or <code>all</code> for all objects
+	 * @param className  the name of the class of the objects, an empty text for unclassified objects,
+	 *                   or <b>null</b> for any class
+	 * @param parent     the object (e.g. an annotation) whose descendants are selected,
+	 *                   or <b>null</b> for the whole hierarchy
+	 * @return <code>pathObjects</code> - the selected objects, in the order of the hierarchy
+	 *
+	 * @see QuPathEZ#queryMeasurements(ImageData, String, String, PathObject, List)
+	 */
+	public static List<PathObject> queryObjects(
+			ImageData<BufferedImage> imageData,
+			String objectType,
+			String className,
+			PathObject parent) {
+		return GatewayScheduler.run("queryObjects",
+				() -> MeasurementQuery.select(imageData.getHierarchy(), objectType, className, parent));
+	}
+
+	/**
+	 * Read only the <code>columns</code> measurements of the objects of <code>imageData</code> matching all filters,
+	 * packed as little-endian <code>float64</code> columns.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEntryPoint#getMeasurements getMeasurements}, which returns boxed values
+	 *     of a single measurement, or {@link QuPathEntryPoint#getMeasurementTable getMeasurementTable},
+	 *     which returns all measurements as text, objects are filtered and the requested measurements
+	 *     read in parallel into primitive columns, each one holding a value per selected object
+	 *     (<code>NaN</code> when missing). The result can be read in Python with
+	 *     <code>np.frombuffer(result, '&lt;f8').reshape(len(columns), -1)</code>.
+	 * </p>
+	 *
+	 * @param imageData  the image data to query
+	 * @param objectType <code>detection</code>, <code>cell</code>, <code>tile</code>, <code>annotation</code>,
+	 *                   or <b>null</b> or <code>all</code> for all objects
+	 * @param className  the name of the class of the objects, an empty text for unclassified objects,
+	 *                   or <b>null</b> for any class
+	 * @param parent     the object whose descendants are selected, or <b>null</b> for the whole hierarchy
+	 * @param columns    the names of the measurements to read
+	 * @return <code>bytes</code> - the packed columns
+	 *
+	 * @see QuPathEZ#queryObjects(ImageData, String, String, PathObject)
+	 */
+	public static byte[] queryMeasurements(
+			ImageData<BufferedImage> imageData,
+			String objectType,
+			String className,
+			PathObject parent,
+			List<String> columns) {
+		return GatewayScheduler.run("queryMeasurements", () -> MeasurementQuery.toBytes(
+				MeasurementQuery.select(imageData.getHierarchy(), objectType, className, parent), columns));
+	}
+
+	/**
+	 * Read only measurement <code>column</code> of the objects of <code>imageData</code> matching all filters.
+	 *
+	 * @param imageData  the image data to query
+	 * @param objectType <code>detection</code>, <code>cell</code>, <code>tile</code>, <code>annotation</code>,
+	 *                   or <b>null</b> or <code>all</code> for all objects
+	 * @param className  the name of the class of the objects, an empty text for unclassified objects,
+	 *                   or <b>null</b> for any class
+	 * @param parent     the object whose descendants are selected, or <b>null</b> for the whole hierarchy
+	 * @param column     the name of the measurement to read
+	 * @return <code>values</code> - one value per selected object, <code>NaN</code> when missing
+	 *
+	 * @see QuPathEZ#queryMeasurements(ImageData, String, String, PathObject, List)
+	 */
+	public static double[] queryMeasurementValues(
+			ImageData<BufferedImage> imageData,
+			String objectType,
+			String className,
+			PathObject parent,
+			String column) {
+		return GatewayScheduler.run("queryMeasurementValues", () -> MeasurementQuery.values(
+				MeasurementQuery.select(imageData.getHierarchy(), objectType, className, parent), column));
+	}
+
+	/**
+	 * Write only the <code>columns</code> measurements of the objects of <code>imageData</code> matching all filters
+	 * in a new shared memory file, and return a JSON descriptor of the written columns.
+	 * This suits selections too large to be returned by
+	 * {@link QuPathEZ#queryMeasurements(ImageData, String, String, PathObject, List)}.
+	 *
+	 * @param imageData  the image data to query
+	 * @param objectType <code>detection</code>, <code>cell</code>, <code>tile</code>, <code>annotation</code>,
+	 *                   or <b>null</b> or <code>all</code> for all objects
+	 * @param className  the name of the class of the objects, an empty text for unclassified objects,
+	 *                   or <b>null</b> for any class
+	 * @param parent     the object whose descendants are selected, or <b>null</b> for the whole hierarchy
+	 * @param columns    the names of the measurements to write, or <b>null</b> for all measurements of the selected objects
+	 * @return <code>descriptor</code> - the JSON descriptor of the written columns
+	 * @throws IOException if an error occurs while writing the columns
+	 *
+	 * @see QuPathEZ#getMeasurementColumns(Collection, List, String)
+	 */
+	public static String queryMeasurementColumns(
+			ImageData<BufferedImage> imageData,
+			String objectType,
+			String className,
+			PathObject parent,
+			List<String> columns) throws IOException {
+		var pathObjects = queryObjects(imageData, objectType, className, parent);
+		return getMeasurementColumns(pathObjects, columns == null ? MeasurementColumns.getAllNames(pathObjects) : columns);
+	}
+
+	/**
+	 * Create detections on the first z-slice and time point from packed binary buffer <code>buffer</code>
+	 * and add them to <code>imageData</code>.
+	 *
+	 * @param imageData        the image data to add the detections to
+	 * @param buffer           the packed detections
+	 * @param classNames       the names of the classes referenced by the class indices of <code>buffer</code>
+	 * @param measurementNames the names of the measurements of each detection
+	 * @return <code>count</code> - the number of added detections
+	 *
+	 * @see QuPathEZ#addDetections(ImageData, byte[], List, List, int, int)
+	 */
+	public static int addDetections(
+			ImageData<BufferedImage> imageData,
+			byte[] buffer,
+			List<String> classNames,
+			List<String> measurementNames) {
+		return addDetections(imageData, buffer, classNames, measurementNames, 0, 0);
+	}
+
+	/**
+	 * Create detections from packed binary buffer <code>buffer</code> and add them to <code>imageData</code>.
+	 *
+	 * <p>
+	 *     This is a binary alternative to {@link QuPathEntryPoint#toPathObjects(String) toPathObjects}:
+	 *     no GeoJSON is created nor parsed. The little-endian buffer holds a 24-byte header
+	 *     (magic <code>QPDT</code>, version 1, number of objects, rings, points and measurements as <code>int32</code>),
+	 *     followed by the ring offsets of each object (<code>int32[nObjects + 1]</code>, the first ring
+	 *     of an object being its shell and the others its holes), the point offsets of each ring
+	 *     (<code>int32[nRings + 1]</code>), the class index of each object (<code>int32[nObjects]</code>,
+	 *     -1 for no class), the x, y coordinates of each point (<code>float64[nPoints * 2]</code>)
+	 *     and the measurements of each object (<code>float64[nObjects * nMeasurements]</code>, row by row).
+	 * </p>
+	 * <p>
+	 *     The ROIs and detections are built in parallel and added to the hierarchy
+	 *     with a single {@link PathObjectHierarchy#addObjects(Collection) addObjects} call,
+	 *     so that only one hierarchy event is fired.
+	 * </p>
+	 *
+	 * @param imageData        the image data to add the detections to
+	 * @param buffer           the packed detections
+	 * @param classNames       the names of the classes referenced by the class indices of <code>buffer</code>
+	 * @param measurementNames the names of the measurements of each detection
+	 * @param z                the z-slice of the detections
+	 * @param t                the time point of the detections
+	 * @return <code>count</code> - the number of added detections
+	 */
+	public static int addDetections(
+			ImageData<BufferedImage> imageData,
+			byte[] buffer,
+			List<String> classNames,
+			List<String> measurementNames,
+			int z, int t) {
+		return GatewayScheduler.run("addDetections", () -> DetectionIngest.addDetections(imageData.getHierarchy(),
+				ByteBuffer.wrap(buffer), classNames, measurementNames, ImagePlane.getPlane(z, t)).size());
+	}
+
+	/**
+	 * Create detections from the packed binary file <code>path</code> (e.g. in shared memory)
+	 * and add them to <code>imageData</code>.
+	 * The file has the layout described in {@link QuPathEZ#addDetections(ImageData, byte[], List, List, int, int)}
+	 * and is memory-mapped rather than copied.
+	 *
+	 * @param imageData        the image data to add the detections to
+	 * @param path             the file containing the packed detections
+	 * @param classNames       the names of the classes referenced by the class indices of the file
+	 * @param measurementNames the names of the measurements of each detection
+	 * @param z                the z-slice of the detections
+	 * @param t                the time point of the detections
+	 * @return <code>count</code> - the number of added detections
+	 * @throws IOException if an error occurs while mapping the file
+	 */
+	public static int addDetectionsFromFile(
+			ImageData<BufferedImage> imageData,
+			String path,
+			List<String> classNames,
+			List<String> measurementNames,
+			int z, int t) throws IOException {
+		return GatewayScheduler.run("addDetectionsFromFile", () -> {
+			try (var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+				var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return DetectionIngest.addDetections(imageData.getHierarchy(), buffer,
+						classNames, measurementNames, ImagePlane.getPlane(z, t)).size();
+			}
+		});
+	}
+
+	/**
+	 * Create one detection per label of a label mask and add them to <code>imageData</code>.
+	 *
+	 * @param imageData the image data to add the detections to
+	 * @param request   the region covered by the mask; its downsample is the one of the mask
+	 * @param labels    the labels of the mask as little-endian <code>int32</code> values, row by row
+	 * @param width     the width of the mask
+	 * @param height    the height of the mask
+	 * @return <code>count</code> - the number of added detections
+	 *
+	 * @see QuPathEZ#addDetectionsFromLabels(ImageData, RegionRequest, byte[], int, int, String, int)
+	 */
+	public static int addDetectionsFromLabels(
+			ImageData<BufferedImage> imageData,
+			RegionRequest request,
+			byte[] labels,
+			int width, int height) {
+		return addDetectionsFromLabels(imageData, request, labels, width, height, null, LabelMaskTracer.DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Create one detection per label of a label mask and add them to <code>imageData</code>.
+	 *
+	 * <p>
+	 *     All labels &gt; 0 are traced on the Java side, so neither vectorization in Python
+	 *     nor a GeoJSON round trip is needed. The mask is split into <code>tileSize</code> tiles
+	 *     traced in parallel; pieces of the same label found in different tiles are merged.
+	 *     Contours are scaled by the downsample of <code>request</code> and translated to its origin,
+	 *     and the detections are added with a single hierarchy event.
+	 * </p>
+	 *
+	 * @param imageData the image data to add the detections to
+	 * @param request   the region covered by the mask; its downsample is the one of the mask
+	 * @param labels    the labels of the mask as little-endian <code>int32</code> values, row by row
+	 * @param width     the width of the mask
+	 * @param height    the height of the mask
+	 * @param className the name of the class of the detections, or <b>null</b> for no class
+	 * @param tileSize  the width and height of the tiles traced in parallel
+	 * @return <code>count</code> - the number of added detections
+	 *
+	 * @see ContourTracing
+	 */
+	public static int addDetectionsFromLabels(
+			ImageData<BufferedImage> imageData,
+			RegionRequest request,
+			byte[] labels,
+			int width, int height,
+			String className,
+			int tileSize) {
+		return GatewayScheduler.run("addDetectionsFromLabels", () -> {
+			var labelArray = LabelMaskTracer.readLabels(ByteBuffer.wrap(labels), width, height);
+			var pathClass = className == null ? null : PathClass.fromString(className);
+			return LabelMaskTracer.addDetections(imageData.getHierarchy(), request, labelArray,
+					width, height, pathClass, tileSize).size();
+		});
+	}
+
+	/**
+	 * Create one detection per label of a label mask stored in file <code>path</code> (e.g. in shared memory)
+	 * and add them to <code>imageData</code>.
+	 *
+	 * @param imageData the image data to add the detections to
+	 * @param request   the region covered by the mask; its downsample is the one of the mask
+	 * @param path      the file containing the labels as little-endian <code>int32</code> values, row by row
+	 * @param width     the width of the mask
+	 * @param height    the height of the mask
+	 * @param className the name of the class of the detections, or <b>null</b> for no class
+	 * @param tileSize  the width and height of the tiles traced in parallel
+	 * @return <code>count</code> - the number of added detections
+	 * @throws IOException if an error occurs while mapping the file
+	 *
+	 * @see QuPathEZ#addDetectionsFromLabels(ImageData, RegionRequest, byte[], int, int, String, int)
+	 */
+	public static int addDetectionsFromLabelsFile(
+			ImageData<BufferedImage> imageData,
+			RegionRequest request,
+			String path,
+			int width, int height,
+			String className,
+			int tileSize) throws IOException {
+		return GatewayScheduler.run("addDetectionsFromLabelsFile", () -> {
+			int[] labelArray;
+			try (var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+				var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				labelArray = LabelMaskTracer.readLabels(buffer, width, height);
+			}
+			var pathClass = className == null ? null : PathClass.fromString(className);
+			return LabelMaskTracer.addDetections(imageData.getHierarchy(), request, labelArray,
+					width, height, pathClass, tileSize).size();
+		});
+	}
+
+	/**
+	 * Stream the raw pixels of all tiles of resolution <code>level</code> of image <code>server</code>,
+	 * for the first z-slice and time point.
+	 *
+	 * @param server the image server to read from
+	 * @param level  the resolution level, 0 being the full resolution
+	 * @return <code>stream</code> - the tile stream, to be consumed with {@link TileStream#nextBatch(int)}
+	 *
+	 * @see QuPathEZ#streamTiles(ImageServer, int, int, int, String, boolean, int)
+	 */
+	public static TileStream streamTiles(
+			ImageServer<BufferedImage> server,
+			int level) {
+		return streamTiles(server, level, 0, 0, RegionBatchReader.FORMAT_RAW, false, 4 * getBatchParallelism());
+	}
+
+	/**
+	 * Stream all tiles of resolution <code>level</code> of image <code>server</code>.
+	 *
+	 * <p>
+	 *     The tiles are defined by {@link ImageServer#getTileRequestManager()} and
+	 *     are read in the background, at most <code>prefetch</code> tiles ahead of the consumer.
+	 *     They are pulled with {@link TileStream#nextBatch(int)}, which returns
+	 *     several tiles packed as in {@link QuPathEZ#getImageBytesBatch(ImageServer, List, String)},
+	 *     and their coordinates are given by {@link TileStream#getRegions()}.
+	 * </p>
+	 *
+	 * @param server   the image server to read from
+	 * @param level    the resolution level, 0 being the full resolution
+	 * @param z        the z-slice of the tiles
+	 * @param t        the time point of the tiles
+	 * @param format   <code>raw</code> for raw pixels, or any format accepted by
+	 *                 {@link QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String) getImageBytes}
+	 * @param planar   for raw pixels, true for <code>CHW</code> and false for <code>HWC</code>
+	 * @param prefetch the maximum number of tiles read ahead of the consumer
+	 * @return <code>stream</code> - the tile stream
+	 *
+	 * @see TileStream
+	 */
+	public static TileStream streamTiles(
+			ImageServer<BufferedImage> server,
+			int level,
+			int z, int t,
+			String format,
+			boolean planar,
+			int prefetch) {
+		return new TileStream(server, level, z, t, format, planar, prefetch);
+	}
+
+	/**
+	 * Get the metrics recorded for the heavy methods of the gateway
+	 * (pixel reads, batches, shared memory, measurement columns, GeoJSON, detection ingest and imports).
+	 *
+	 * <p>
+	 *     For each method, the JSON object holds the number of <code>calls</code> and <code>errors</code>,
+	 *     the number of calls currently running (<code>inFlight</code>), the number of <code>bytes</code>
+	 *     returned as <code>byte[]</code> or strings, and the mean, 50th, 90th, 99th and 99.9th percentiles
+	 *     and maximum latencies in milliseconds. Latencies are measured inside QuPath:
+	 *     the time spent by Py4J to transfer arguments and results over the socket is not included,
+	 *     and should be obtained by comparing them with the latencies measured in Python.
+	 * </p>
+	 *
+	 * @return <code>metrics</code> - a JSON object mapping each called method to its metrics
+	 */
+	public static String getGatewayMetrics() {
+		return GsonTools.getInstance().toJson(GatewayMetrics.snapshot());
+	}
+
+	/**
+	 * Remove all metrics recorded for the methods of the gateway.
+	 *
+	 * @see QuPathEZ#getGatewayMetrics()
+	 */
+	public static void resetGatewayMetrics() {
+		GatewayMetrics.reset();
+	}
+
+	/**
+	 * Enable or disable the recording of the metrics of the gateway methods.
+	 * Metrics are recorded by default.
+	 *
+	 * @param enable true to record metrics
+	 *
+	 * @see QuPathEZ#getGatewayMetrics()
+	 */
+	public static void setGatewayMetricsEnabled(boolean enable) {
+		GatewayMetrics.setEnabled(enable);
+	}
+
+	/**
+	 * Periodically write the metrics of the gateway methods, as returned by
+	 * {@link QuPathEZ#getGatewayMetrics()}, with one CSV line per method.
+	 * Any previous periodic dump is stopped.
+	 *
+	 * @param csvPath       the CSV file to append the lines to, or <b>null</b> to write them to the log
+	 * @param periodSeconds the period of the dump, in seconds
+	 *
+	 * @see QuPathEZ#stopGatewayMetricsDump()
+	 */
+	public static void startGatewayMetricsDump(String csvPath, double periodSeconds) {
+		GatewayMetrics.startDump(csvPath, periodSeconds);
+	}
+
+	/**
+	 * Stop the periodic dump started by {@link QuPathEZ#startGatewayMetricsDump(String, double)}, if any.
+	 */
+	public static void stopGatewayMetricsDump() {
+		GatewayMetrics.stopDump();
+	}
+
+	/**
+	 * Limit the number of heavy calls (the ones listed in {@link QuPathEZ#getGatewayMetrics()})
+	 * running at the same time, so that clients connected to the same gateway are served fairly.
+	 *
+	 * <p>
+	 *     A heavy call waits until its client runs fewer than <code>clientQuota</code> heavy calls,
+	 *     then until fewer than <code>maxConcurrentCalls</code> heavy calls run in total;
+	 *     waiting calls are admitted in arrival order. This prevents a client sending many
+	 *     slow reads from several threads from delaying the calls of the other clients.
+	 *     The time spent waiting is recorded in the gateway metrics, under the name of the method
+	 *     followed by <code>(queued)</code>. Calls that are not heavy are never delayed.
+	 * </p>
+	 *
+	 * @param maxConcurrentCalls the maximum number of heavy calls of all clients running at the same time,
+	 *                           or a value &lt;= 0 for no limit
+	 * @param clientQuota        the maximum number of heavy calls of a single client running at the same time,
+	 *                           or a value &lt;= 0 for no limit
+	 *
+	 * @see QuPathEZ#setClientId(String)
+	 * @see ConcurrentGateway
+	 */
+	public static void configureGatewayScheduler(int maxConcurrentCalls, int clientQuota) {
+		GatewayScheduler.configure(maxConcurrentCalls, clientQuota);
+	}
+
+	/**
+	 * Set the id of the client calling from the current connection, used by the quotas of
+	 * {@link QuPathEZ#configureGatewayScheduler(int, int)}.
+	 *
+	 * <p>
+	 *     Py4J serves each connection (i.e. each Python thread) on its own thread, and the id is attached to it:
+	 *     a Python process using several threads must call this method from each of them with the same id.
+	 *     Connections without an id all belong to the same <code>default</code> client, so that they share
+	 *     a single quota however many connections a Python process opens.
+	 * </p>
+	 *
+	 * @param clientId the id of the client, or <b>null</b> to use the <code>default</code> client
+	 */
+	public static void setClientId(String clientId) {
+		GatewayScheduler.setClientId(clientId);
+	}
+
+	/**
+	 * Get the id of the client calling from the current connection.
+	 *
+	 * @return <code>clientId</code> - the id set by {@link QuPathEZ#setClientId(String)}, or <code>default</code>
+	 */
+	public static String getClientId() {
+		return GatewayScheduler.getClientId();
+	}
+
+	/**
+	 * Get the state of the scheduler configured by {@link QuPathEZ#configureGatewayScheduler(int, int)}.
+	 *
+	 * @return <code>statistics</code> - a JSON object with the limits, the number of available global permits
+	 *         and, for each client with running or waiting calls, its number of <code>running</code>, <code>waiting</code>
+	 *         and <code>completed</code> heavy calls
+	 */
+	public static String getGatewaySchedulerStatistics() {
+		return GsonTools.getInstance().toJson(GatewayScheduler.getStatistics());
+	}
+
 //	/**
 //	 * Read the first z-slice and first time point of
 //	 * the provided image at the provided downsample and
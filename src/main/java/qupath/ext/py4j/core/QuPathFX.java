@@ -35,6 +35,7 @@ import java.io.File;
 import java.net.URI;
 import java.io.FileWriter;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -42,6 +43,28 @@ import java.net.URISyntaxException;
  */
 public class QuPathFX extends QuPathEntryPoint {
 
+	/**
+	 * Check if the QuPath GUI is running, which is needed by the methods of this class
+	 * that open, close, refresh or repaint something in QuPath.
+	 * It is not running when the gateway is started by {@link QuPathHeadless}.
+	 *
+	 * @return true if the QuPath GUI is running, false otherwise
+	 *
+	 * @see QPEx#getQuPath()
+	 */
+	public static boolean isQuPathGUIAvailable() {
+		return getQuPath() != null;
+	}
+
+	/**
+	 * Fail fast rather than waiting for a JavaFX application thread that will never run.
+	 */
+	static void requireQuPathGUI() {
+		if (!isQuPathGUIAvailable()) {
+			throw new IllegalStateException("This method needs the QuPath GUI, which is not running (headless gateway)");
+		}
+	}
+
 	/**
 	 * Refresh the current project {@link QPEx#getProject() getProject()} in QuPath.
 	 * This should be called whenever the current project has changed
@@ -51,10 +74,11 @@ public class QuPathFX extends QuPathEntryPoint {
 	 * @see QuPathGUI#refreshProject()
 	 */
 	public static void refreshProjectInQuPath() {
-		FXUtils.callOnApplicationThread(() -> {
+		requireQuPathGUI();
+		GatewayMetrics.record("refreshProjectInQuPath", () -> FXUtils.callOnApplicationThread(() -> {
 			getQuPath().refreshProject();
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -67,10 +91,11 @@ public class QuPathFX extends QuPathEntryPoint {
 	 * @see QuPathViewer#repaintEntireImage()
 	 */
 	public static void repaintEntireImageInQuPath() {
-		FXUtils.callOnApplicationThread(() -> {
+		requireQuPathGUI();
+		GatewayMetrics.record("repaintEntireImageInQuPath", () -> FXUtils.callOnApplicationThread(() -> {
 			getCurrentViewer().repaintEntireImage();
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -84,10 +109,11 @@ public class QuPathFX extends QuPathEntryPoint {
 	 * @see QuPathGUI#setProject(Project)
 	 */
 	public static void openProjectInQuPath(Project<BufferedImage> project) {
-		FXUtils.callOnApplicationThread(() -> {
+		requireQuPathGUI();
+		GatewayMetrics.record("openProjectInQuPath", () -> FXUtils.callOnApplicationThread(() -> {
 			getQuPath().setProject(project);
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -98,10 +124,11 @@ public class QuPathFX extends QuPathEntryPoint {
 	 * @see Commands#closeProject(QuPathGUI)
 	 */
 	public static void closeProjectInQuPath() {
-		FXUtils.callOnApplicationThread(() -> {
+		requireQuPathGUI();
+		GatewayMetrics.record("closeProjectInQuPath", () -> FXUtils.callOnApplicationThread(() -> {
 			Commands.closeProject(getQuPath());
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -124,7 +151,8 @@ public class QuPathFX extends QuPathEntryPoint {
 	 * @see QuPathViewer#setImageData(ImageData)
 	 */
 	public static void openImageDataInQuPath(ImageData<BufferedImage> imageData) {
-		FXUtils.callOnApplicationThread(() -> {
+		requireQuPathGUI();
+		GatewayMetrics.record("openImageDataInQuPath", () -> FXUtils.callOnApplicationThread(() -> {
 //			saveCurrentImageData();
 			if ((getProject() != null) && (getProject().getEntry(imageData) == null)) {
 				closeProjectInQuPath();
@@ -132,7 +160,7 @@ public class QuPathFX extends QuPathEntryPoint {
 			getCurrentViewer().setImageData(imageData);
 			getQuPath().refreshProject();
 			return null;
-		});
+		}));
 	}
 
 	/**
@@ -150,14 +178,171 @@ public class QuPathFX extends QuPathEntryPoint {
 	 * @see QuPathViewer#resetImageData()
 	 */
 	public static void closeImageDataInQuPath() {
-		FXUtils.callOnApplicationThread(() -> {
+		requireQuPathGUI();
+		GatewayMetrics.record("closeImageDataInQuPath", () -> FXUtils.callOnApplicationThread(() -> {
 //			saveCurrentImageData();
 			getCurrentViewer().resetImageData();
 			getQuPath().refreshProject();
 			return null;
+		}));
+	}
+
+	/**
+	 * Refresh the current project in QuPath without waiting for it.
+	 *
+	 * <p>
+	 *     Redundant requests are coalesced: if a refresh is already waiting to be run
+	 *     on the JavaFX application thread, no new refresh is scheduled
+	 *     and the returned future is the one of the pending refresh.
+	 * </p>
+	 *
+	 * @return <code>future</code> - completed once the project has been refreshed
+	 *
+	 * @see QuPathFX#refreshProjectInQuPath()
+	 */
+	public static CompletableFuture<Void> refreshProjectInQuPathAsync() {
+		requireQuPathGUI();
+		return FXDispatcher.runCoalesced("refreshProject", () -> getQuPath().refreshProject());
+	}
+
+	/**
+	 * Repaint the entire image in the current viewer without waiting for it.
+	 *
+	 * <p>
+	 *     Redundant requests are coalesced: repaints requested while one is waiting
+	 *     to be run on the JavaFX application thread are merged into it,
+	 *     so that a loop repainting after each change triggers at most one repaint per pulse.
+	 * </p>
+	 *
+	 * @return <code>future</code> - completed once the image has been repainted
+	 *
+	 * @see QuPathFX#repaintEntireImageInQuPath()
+	 */
+	public static CompletableFuture<Void> repaintEntireImageInQuPathAsync() {
+		requireQuPathGUI();
+		return FXDispatcher.runCoalesced("repaintEntireImage", () -> getCurrentViewer().repaintEntireImage());
+	}
+
+	/**
+	 * Open project <code>project</code> in QuPath without waiting for it.
+	 *
+	 * @param project the project to open
+	 * @return <code>future</code> - completed once the project has been opened
+	 *
+	 * @see QuPathFX#openProjectInQuPath(Project)
+	 */
+	public static CompletableFuture<Void> openProjectInQuPathAsync(Project<BufferedImage> project) {
+		requireQuPathGUI();
+		return FXDispatcher.runAsync(() -> {
+			getQuPath().setProject(project);
+			return null;
 		});
 	}
-	
+
+	/**
+	 * Close the current project in QuPath without waiting for it.
+	 *
+	 * @return <code>future</code> - completed once the project has been closed
+	 *
+	 * @see QuPathFX#closeProjectInQuPath()
+	 */
+	public static CompletableFuture<Void> closeProjectInQuPathAsync() {
+		requireQuPathGUI();
+		return FXDispatcher.runAsync(() -> {
+			Commands.closeProject(getQuPath());
+			return null;
+		});
+	}
+
+	/**
+	 * Open image <code>imageData</code> in the current viewer without waiting for it.
+	 *
+	 * @param imageData the image to open
+	 * @return <code>future</code> - completed once the image has been opened
+	 *
+	 * @see QuPathFX#openImageDataInQuPath(ImageData)
+	 */
+	public static CompletableFuture<Void> openImageDataInQuPathAsync(ImageData<BufferedImage> imageData) {
+		requireQuPathGUI();
+		return FXDispatcher.runAsync(() -> {
+			openImageDataInQuPath(imageData);
+			return null;
+		});
+	}
+
+	/**
+	 * Close the current image data in QuPath without waiting for it.
+	 *
+	 * @return <code>future</code> - completed once the image has been closed
+	 *
+	 * @see QuPathFX#closeImageDataInQuPath()
+	 */
+	public static CompletableFuture<Void> closeImageDataInQuPathAsync() {
+		requireQuPathGUI();
+		return FXDispatcher.runAsync(() -> {
+			closeImageDataInQuPath();
+			return null;
+		});
+	}
+
+	/**
+	 * Get the number of asynchronous requests that were merged into a pending one
+	 * (e.g. by {@link QuPathFX#repaintEntireImageInQuPathAsync()}) instead of being run.
+	 *
+	 * @return <code>count</code> - the number of coalesced requests
+	 */
+	public static long getCoalescedFXRequestCount() {
+		return FXDispatcher.getCoalescedCount();
+	}
+
+	/**
+	 * Get the number of asynchronous requests that were run on the JavaFX application thread.
+	 *
+	 * @return <code>count</code> - the number of dispatched requests
+	 */
+	public static long getDispatchedFXRequestCount() {
+		return FXDispatcher.getDispatchedCount();
+	}
+
+	/**
+	 * Start streaming snapshots of the current viewer as JPEG images of quality 0.8.
+	 *
+	 * @param fps the target number of frames per second
+	 * @return <code>stream</code> - the stream, whose latest frame can be pulled
+	 *
+	 * @see QuPathFX#startViewerSnapshotStream(QuPathViewer, double, String, double)
+	 */
+	public static ViewerSnapshotStream startViewerSnapshotStream(double fps) {
+		requireQuPathGUI();
+		return startViewerSnapshotStream(getCurrentViewer(), fps, "jpg", 0.8);
+	}
+
+	/**
+	 * Start streaming snapshots of viewer <code>viewer</code>.
+	 *
+	 * <p>
+	 *     Unlike {@link QuPathEntryPoint#snapshot(QuPathViewer) snapshot(viewer)}, which renders and encodes the
+	 *     viewer on each call, the viewer is captured on the pulses of the JavaFX application thread at most
+	 *     <code>fps</code> times per second and encoded in the background. Frames not pulled before the next one
+	 *     is encoded are dropped, so pulling with {@link ViewerSnapshotStream#getFrameAfter(long)} only
+	 *     transfers the most recent frame.
+	 * </p>
+	 * <p>
+	 *     The stream should be closed once not needed anymore.
+	 * </p>
+	 *
+	 * @param viewer  the viewer to capture
+	 * @param fps     the target number of frames per second
+	 * @param format  <code>jpg</code>, or <code>raw</code> for interleaved RGB pixels with the header of
+	 *                {@link QuPathEZ#getRawPixels(ImageServer, RegionRequest, boolean) getRawPixels}
+	 * @param quality the JPEG quality, between 0 and 1
+	 * @return <code>stream</code> - the stream, whose latest frame can be pulled
+	 */
+	public static ViewerSnapshotStream startViewerSnapshotStream(QuPathViewer viewer, double fps, String format, double quality) {
+		requireQuPathGUI();
+		return new ViewerSnapshotStream(viewer, fps, format, quality);
+	}
+
 //
 //	 comment out these 3 methods
 //	 1. use OpenImageDataInPath(imageData) to open the entry
@@ -0,0 +1,86 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Start a gateway from the command line without the QuPath GUI.
+ *
+ * <p>
+ *     Only the core libraries and image servers are loaded: JavaFX is not started,
+ *     so a worker starts quickly and uses little memory. Methods of {@link QuPathEZ}
+ *     that do not need the GUI work as usual; the ones of {@link QuPathFX}
+ *     that need it throw an {@link IllegalStateException}
+ *     (see {@link QuPathFX#isQuPathGUIAvailable()}).
+ * </p>
+ * <p>
+ *     Usage: <code>QuPathHeadless [--help] [--port PORT] [--token TOKEN] [--max-calls N] [--client-quota N]</code>,
+ *     where <code>--max-calls</code> and <code>--client-quota</code> are the limits of
+ *     {@link QuPathEZ#configureGatewayScheduler(int, int)}; without them, heavy calls are not limited.
+ *     The token can also be given by
+ *     the <code>QUPATH_PY4J_TOKEN</code> environment variable, to keep it out of the process list.
+ *     The gateway runs until the process is stopped. With <code>--help</code> (or <code>-h</code>),
+ *     the usage is printed and no gateway is started.
+ * </p>
+ */
+public class QuPathHeadless {
+
+	private static final Logger logger = LoggerFactory.getLogger(QuPathHeadless.class);
+
+	private static final String TOKEN_VARIABLE = "QUPATH_PY4J_TOKEN";
+	private static final String USAGE =
+			"Usage: QuPathHeadless [--help] [--port PORT] [--token TOKEN] [--max-calls N] [--client-quota N]";
+
+	private QuPathHeadless() {
+	}
+
+	/**
+	 * Start a headless gateway.
+	 *
+	 * @param args the command line arguments, as described in {@link QuPathHeadless}
+	 * @throws InterruptedException if interrupted while the gateway is running
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+
+		// looked for before the other arguments, which are read as pairs and would take it as a name without value
+		for (String arg : args) {
+			if (arg.equals("--help") || arg.equals("-h")) {
+				System.out.println(USAGE);
+				return;
+			}
+		}
+
+		int port = -1;
+		String token = System.getenv(TOKEN_VARIABLE);
+		// heavy calls are not limited unless asked for
+		int maxCalls = 0;
+		int clientQuota = 0;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i == args.length - 1) {
+				throw new IllegalArgumentException("Missing value of " + arg);
+			}
+			String value = args[++i];
+			switch (arg) {
+				case "--port" -> port = Integer.parseInt(value);
+				case "--token" -> token = value;
+				case "--max-calls" -> maxCalls = Integer.parseInt(value);
+				case "--client-quota" -> clientQuota = Integer.parseInt(value);
+				default -> throw new IllegalArgumentException("Unknown argument " + arg + "\n" + USAGE);
+			}
+		}
+
+		var server = ConcurrentGateway.start(port, token, maxCalls, clientQuota);
+		var stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			logger.info("Stopping gateway");
+			server.shutdown();
+			stopped.countDown();
+		}, "py4j-headless-shutdown"));
+		stopped.await();
+	}
+}
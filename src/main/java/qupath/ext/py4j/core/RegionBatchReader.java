@@ -0,0 +1,268 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Read many regions of the same {@link ImageServer} concurrently
+ * and pack them into a single buffer.
+ *
+ * <p>
+ *     The returned buffer starts with a little-endian header, followed by
+ *     the encoded regions in request order:
+ * </p>
+ * <pre>
+ * bytes 0-3   magic "QPRB"
+ * bytes 4-7   int32 number of regions n
+ * bytes 8-... int64 offsets[n + 1] of each region from the start of the buffer
+ * </pre>
+ * <p>
+ *     Region <code>i</code> occupies <code>buffer[offsets[i]:offsets[i+1]]</code>.
+ * </p>
+ */
+final class RegionBatchReader {
+
+	/**
+	 * Format name for raw pixels, as returned by {@link PixelBuffers#toRawBytes}.
+	 */
+	static final String FORMAT_RAW = "raw";
+
+	/**
+	 * Number of int values describing one region in a packed region array:
+	 * <code>x, y, width, height, z, t</code>.
+	 */
+	static final int VALUES_PER_REGION = 6;
+
+	private static final byte[] BATCH_MAGIC = {'Q', 'P', 'R', 'B'};
+
+	// reads block on I/O, so they run on plain threads rather than on a ForkJoinPool;
+	// the pool is resized in place, so tasks being submitted are never rejected
+	private static final ThreadPoolExecutor pool = createPool(defaultParallelism());
+
+	private RegionBatchReader() {
+	}
+
+	private static int defaultParallelism() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	private static ThreadPoolExecutor createPool(int nThreads) {
+		var executor = new ThreadPoolExecutor(nThreads, nThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			var thread = new Thread(runnable, "py4j-region-reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Set the maximum number of regions read at the same time.
+	 * Reads already running are not interrupted, and queued ones run with the new limit.
+	 *
+	 * @param parallelism the number of concurrent reads, or a value &lt;= 0 to use the number of processors
+	 */
+	static synchronized void setParallelism(int parallelism) {
+		int n = parallelism > 0 ? parallelism : defaultParallelism();
+		// the core size must never exceed the maximum size
+		if (n > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(n);
+			pool.setCorePoolSize(n);
+		} else {
+			pool.setCorePoolSize(n);
+			pool.setMaximumPoolSize(n);
+		}
+	}
+
+	/**
+	 * Get the maximum number of regions read at the same time.
+	 *
+	 * @return the number of concurrent reads
+	 */
+	static synchronized int getParallelism() {
+		return pool.getMaximumPoolSize();
+	}
+
+	/**
+	 * Create region requests from a packed array of <code>x, y, width, height, z, t</code> values.
+	 *
+	 * @param server     the image server to read from
+	 * @param downsample the downsample of all regions
+	 * @param regions    the packed region array
+	 * @return the region requests
+	 */
+	static List<RegionRequest> toRequests(ImageServer<BufferedImage> server, double downsample, int[] regions) {
+		if (regions.length % VALUES_PER_REGION != 0) {
+			throw new IllegalArgumentException("Packed regions must contain " + VALUES_PER_REGION +
+					" values per region (x, y, width, height, z, t), but " + regions.length + " values were provided");
+		}
+		var requests = new ArrayList<RegionRequest>(regions.length / VALUES_PER_REGION);
+		for (int i = 0; i < regions.length; i += VALUES_PER_REGION) {
+			requests.add(RegionRequest.createInstance(server.getPath(), downsample,
+					regions[i], regions[i+1], regions[i+2], regions[i+3], regions[i+4], regions[i+5]));
+		}
+		return requests;
+	}
+
+	/**
+	 * Read and encode all <code>requests</code> concurrently and pack them into a single buffer.
+	 *
+	 * @param server   the image server to read from
+	 * @param requests the regions to read
+	 * @param format   {@value #FORMAT_RAW} for raw pixels, or any format accepted by
+	 *                 {@link QuPathEntryPoint#getImageBytes(ImageServer, RegionRequest, String)}
+	 * @param planar   for raw pixels, true for <code>CHW</code> and false for <code>HWC</code>
+	 * @return the packed buffer
+	 * @throws IOException if an error occurs while reading one of the regions
+	 */
+	static byte[] read(
+			ImageServer<BufferedImage> server,
+			List<RegionRequest> requests,
+			String format,
+			boolean planar) throws IOException {
+		var futures = new ArrayList<Future<byte[]>>(requests.size());
+		for (var request : requests) {
+			futures.add(submit(server, request, format, planar));
+		}
+		var encoded = new ArrayList<byte[]>(requests.size());
+		try {
+			for (var future : futures) {
+				encoded.add(get(future));
+			}
+		} catch (InterruptedException e) {
+			futures.forEach(f -> f.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading regions", e);
+		} catch (IOException e) {
+			futures.forEach(f -> f.cancel(true));
+			throw e;
+		}
+		return pack(encoded);
+	}
+
+	/**
+	 * Submit the reading and encoding of <code>request</code> to the shared pool.
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param format  {@value #FORMAT_RAW} for raw pixels, or any format accepted by <code>getImageBytes</code>
+	 * @param planar  for raw pixels, true for <code>CHW</code> and false for <code>HWC</code>
+	 * @return the future encoded region
+	 */
+	static Future<byte[]> submit(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			String format,
+			boolean planar) {
+		return pool.submit(() -> encode(server, request, format, planar));
+	}
+
+	/**
+	 * Submit the reading and encoding of <code>request</code> to the shared pool, and run <code>done</code>
+	 * once the region is read, whether the read succeeded or not. <code>done</code> is not run
+	 * if the returned future is cancelled before the read starts.
+	 *
+	 * @param server  the image server to read from
+	 * @param request the region to read
+	 * @param format  {@value #FORMAT_RAW} for raw pixels, or any format accepted by <code>getImageBytes</code>
+	 * @param planar  for raw pixels, true for <code>CHW</code> and false for <code>HWC</code>
+	 * @param done    the action to run after the read
+	 * @return the future encoded region
+	 */
+	static Future<byte[]> submit(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			String format,
+			boolean planar,
+			Runnable done) {
+		return pool.submit(() -> {
+			try {
+				return encode(server, request, format, planar);
+			} finally {
+				done.run();
+			}
+		});
+	}
+
+	/**
+	 * Get the encoded bytes of a region, rethrowing any {@link IOException} raised while reading it.
+	 *
+	 * @param future the future encoded region
+	 * @return the encoded region
+	 * @throws IOException if an error occurs while reading the region
+	 * @throws InterruptedException if interrupted while waiting for the region
+	 */
+	static byte[] get(Future<byte[]> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof UncheckedIOException uncheckedIOException) {
+				throw uncheckedIOException.getCause();
+			}
+			throw new IOException("Unable to read region", cause);
+		}
+	}
+
+	private static byte[] encode(
+			ImageServer<BufferedImage> server,
+			RegionRequest request,
+			String format,
+			boolean planar) {
+		try {
+			if (format == null || FORMAT_RAW.equalsIgnoreCase(format)) {
+				return PixelBuffers.toRawBytes(server.readRegion(request), server.getPixelType(), planar);
+			}
+			// workers run outside the permits of the batch, so they must not go through the scheduler again
+			return QuPathEZ.encodeRegion(server, request, format);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Pack encoded regions into a single buffer with the offset index described in this class.
+	 *
+	 * @param encoded the encoded regions
+	 * @return the packed buffer
+	 */
+	static byte[] pack(List<byte[]> encoded) {
+		int n = encoded.size();
+		long headerSize = BATCH_MAGIC.length + Integer.BYTES + (long) (n + 1) * Long.BYTES;
+		long size = headerSize;
+		for (var bytes : encoded) {
+			size += bytes.length;
+		}
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Batch is too large for a byte array (" + size + " bytes), split it into smaller batches");
+		}
+		var packed = new byte[(int) size];
+		var buffer = ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(BATCH_MAGIC);
+		buffer.putInt(n);
+		long offset = headerSize;
+		for (var bytes : encoded) {
+			buffer.putLong(offset);
+			offset += bytes.length;
+		}
+		buffer.putLong(offset);
+		for (var bytes : encoded) {
+			buffer.put(bytes);
+		}
+		return packed;
+	}
+}
@@ -0,0 +1,74 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImageRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Find the objects of a hierarchy located in a region of the image.
+ *
+ * <p>
+ *     Queries go through the spatial index of {@link PathObjectHierarchy}, which is built
+ *     when first needed and kept up to date on hierarchy events, so that a query only
+ *     visits the objects close to the region rather than all objects of the image.
+ * </p>
+ */
+final class RegionQuery {
+
+	/**
+	 * Object type selecting detections (including cells and tiles).
+	 */
+	static final String TYPE_DETECTION = "detection";
+	/**
+	 * Object type selecting annotations.
+	 */
+	static final String TYPE_ANNOTATION = "annotation";
+	/**
+	 * Object type selecting all objects except the root.
+	 */
+	static final String TYPE_ALL = "all";
+
+	private RegionQuery() {
+	}
+
+	/**
+	 * Find the objects of <code>type</code> intersecting <code>region</code>.
+	 *
+	 * @param hierarchy      the hierarchy to query
+	 * @param region         the region of the image, including its z-slice and time point
+	 * @param type           {@link #TYPE_DETECTION}, {@link #TYPE_ANNOTATION} or {@link #TYPE_ALL}
+	 * @param centroidInside true to keep only the objects whose centroid is inside <code>region</code>,
+	 *                       so that each object is found in a single region of a grid
+	 * @return the found objects
+	 */
+	static List<PathObject> find(PathObjectHierarchy hierarchy, ImageRegion region, String type, boolean centroidInside) {
+		var found = new ArrayList<PathObject>();
+		switch (type == null ? TYPE_DETECTION : type.toLowerCase(Locale.ROOT)) {
+			case TYPE_DETECTION -> hierarchy.getAllDetectionsForRegion(region, found);
+			case TYPE_ANNOTATION -> hierarchy.getAnnotationsForRegion(region, found);
+			case TYPE_ALL -> hierarchy.getAllObjectsForRegion(region, found);
+			default -> throw new IllegalArgumentException("Unknown object type " + type +
+					" (expected " + TYPE_DETECTION + ", " + TYPE_ANNOTATION + " or " + TYPE_ALL + ")");
+		}
+		if (centroidInside) {
+			found.removeIf(pathObject -> !isCentroidInside(pathObject, region));
+		}
+		return found;
+	}
+
+	private static boolean isCentroidInside(PathObject pathObject, ImageRegion region) {
+		var roi = pathObject.getROI();
+		if (roi == null) {
+			return false;
+		}
+		double x = roi.getCentroidX();
+		double y = roi.getCentroidY();
+		return x >= region.getX() && x < region.getX() + region.getWidth() &&
+				y >= region.getY() && y < region.getY() + region.getHeight();
+	}
+}
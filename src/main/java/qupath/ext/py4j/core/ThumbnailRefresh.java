@@ -0,0 +1,289 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.gui.commands.ProjectCommands;
+import qupath.lib.io.GsonTools;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Regenerate the thumbnails of all entries of a {@link Project} in the background.
+ *
+ * <p>
+ *     Thumbnails are rendered by a bounded pool of workers, each one opening the image of an entry,
+ *     rendering its thumbnail and closing it. Entries whose thumbnail is more recent than all files
+ *     of their image are skipped, unless the refresh is forced. Each rendered thumbnail is handed to
+ *     a single writer thread, which saves them to the project one at a time; workers wait when a few
+ *     thumbnails per worker are already waiting to be written, so thumbnails never pile up in memory.
+ * </p>
+ * <p>
+ *     The refresh starts as soon as it is created; its progress can be polled with
+ *     {@link #getProgress()} and its end awaited with {@link #waitFor(double)}.
+ * </p>
+ */
+public class ThumbnailRefresh {
+
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailRefresh.class);
+
+	private static final String THUMBNAIL_FILE = "thumbnail.jpg";
+
+	private final List<ProjectImageEntry<BufferedImage>> entries;
+	private final boolean force;
+	private final ExecutorService pool;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		var thread = new Thread(runnable, "py4j-thumbnail-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Semaphore pendingWrites;
+	private final CountDownLatch remaining;
+	private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger nRendered = new AtomicInteger();
+	private final AtomicInteger nSkipped = new AtomicInteger();
+	private final AtomicInteger nFailed = new AtomicInteger();
+	private final AtomicInteger nWritten = new AtomicInteger();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Start refreshing the thumbnails of all entries of <code>project</code>.
+	 *
+	 * @param project  the project whose thumbnails should be refreshed
+	 * @param nThreads the number of workers, or a value &lt;= 0 to use the number of processors
+	 * @param force    true to refresh all thumbnails, false to skip the ones more recent than their image
+	 */
+	ThumbnailRefresh(Project<BufferedImage> project, int nThreads, boolean force) {
+		this.entries = new ArrayList<>(project.getImageList());
+		this.force = force;
+		int n = Math.max(1, Math.min(nThreads > 0 ? nThreads : Runtime.getRuntime().availableProcessors(), entries.size()));
+		this.pool = Executors.newFixedThreadPool(n, runnable -> {
+			var thread = new Thread(runnable, "py4j-thumbnail-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.pendingWrites = new Semaphore(2 * n);
+		this.remaining = new CountDownLatch(entries.size());
+		for (var entry : entries) {
+			pool.execute(new RenderTask(entry));
+		}
+		var finisher = new Thread(() -> {
+			try {
+				remaining.await();
+				writer.shutdown();
+				writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				pool.shutdown();
+				done.countDown();
+			}
+		}, "py4j-thumbnail-finisher");
+		finisher.setDaemon(true);
+		finisher.start();
+	}
+
+	/**
+	 * Render the thumbnail of one entry; the entry counts as processed once the task has run,
+	 * or once it has been dropped by {@link #cancel()}.
+	 */
+	private class RenderTask implements Runnable {
+
+		private final ProjectImageEntry<BufferedImage> entry;
+
+		private RenderTask(ProjectImageEntry<BufferedImage> entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public void run() {
+			try {
+				render(entry);
+			} finally {
+				remaining.countDown();
+			}
+		}
+	}
+
+	private void render(ProjectImageEntry<BufferedImage> entry) {
+		if (cancelled) {
+			return;
+		}
+		BufferedImage thumbnail;
+		try {
+			if (!force && isUpToDate(entry)) {
+				nSkipped.incrementAndGet();
+				return;
+			}
+			try (var server = entry.getServerBuilder().build()) {
+				thumbnail = ProjectCommands.getThumbnailRGB(server);
+			}
+			nRendered.incrementAndGet();
+		} catch (Exception e) {
+			nFailed.incrementAndGet();
+			errors.add(entry.getImageName() + ": " + e.getMessage());
+			logger.debug("Unable to render thumbnail of {}", entry.getImageName(), e);
+			return;
+		}
+		try {
+			pendingWrites.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			writer.execute(() -> {
+				try {
+					write(entry, thumbnail);
+				} finally {
+					pendingWrites.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// cancelled while rendering
+			pendingWrites.release();
+		}
+	}
+
+	/**
+	 * Check if the thumbnail of <code>entry</code> is more recent than all local files of its image.
+	 * Entries whose image is not made of local files, or whose project does not store them in
+	 * a directory, are never up-to-date.
+	 */
+	private static boolean isUpToDate(ProjectImageEntry<BufferedImage> entry) throws IOException {
+		// the thumbnail file is only known for projects storing entries in directories (as DefaultProject does)
+		var entryPath = entry.getEntryPath();
+		if (entryPath == null) {
+			return false;
+		}
+		var thumbnailPath = entryPath.resolve(THUMBNAIL_FILE);
+		if (!Files.exists(thumbnailPath)) {
+			return false;
+		}
+		FileTime thumbnailTime = Files.getLastModifiedTime(thumbnailPath);
+		var uris = entry.getURIs();
+		if (uris.isEmpty()) {
+			return false;
+		}
+		for (var uri : uris) {
+			if (!"file".equals(uri.getScheme())) {
+				return false;
+			}
+			var imagePath = Path.of(uri);
+			if (!Files.exists(imagePath) || Files.getLastModifiedTime(imagePath).compareTo(thumbnailTime) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void write(ProjectImageEntry<BufferedImage> entry, BufferedImage thumbnail) {
+		if (cancelled) {
+			return;
+		}
+		try {
+			entry.setThumbnail(thumbnail);
+			nWritten.incrementAndGet();
+		} catch (IOException | RuntimeException e) {
+			nFailed.incrementAndGet();
+			errors.add(entry.getImageName() + ": " + e.getMessage());
+			logger.debug("Unable to write thumbnail of {}", entry.getImageName(), e);
+		}
+	}
+
+	/**
+	 * Get the number of entries of the project.
+	 *
+	 * @return the number of entries to process
+	 */
+	public int getTotal() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the number of entries processed so far, whether their thumbnail was rendered,
+	 * skipped or failed.
+	 *
+	 * @return the number of processed entries
+	 */
+	public int getProcessed() {
+		return nRendered.get() + nSkipped.get() + nFailed.get();
+	}
+
+	/**
+	 * Check if all thumbnails have been rendered and written, or the refresh was cancelled.
+	 *
+	 * @return true if the refresh is over
+	 */
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Wait for the refresh to be over.
+	 *
+	 * @param timeoutSeconds the maximum time to wait, in seconds
+	 * @return true if the refresh is over, false if the timeout elapsed before
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean waitFor(double timeoutSeconds) throws InterruptedException {
+		return done.await(Math.round(timeoutSeconds * 1000), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the refresh. Entries not rendered yet are not processed,
+	 * and rendered thumbnails not written yet are discarded.
+	 * Renders already running are interrupted, and the pool and writer threads are shut down.
+	 */
+	public void cancel() {
+		cancelled = true;
+		// dropped renders still count as processed, so that the refresh ends
+		for (var task : pool.shutdownNow()) {
+			if (task instanceof RenderTask) {
+				remaining.countDown();
+			}
+		}
+		for (var task : writer.shutdownNow()) {
+			pendingWrites.release();
+		}
+	}
+
+	/**
+	 * Get the progress of the refresh.
+	 *
+	 * @return a JSON object with the number of entries (<code>total</code>), of <code>rendered</code>,
+	 *         <code>skipped</code> and <code>failed</code> thumbnails, of <code>written</code> thumbnails,
+	 *         whether the refresh is <code>done</code> and the <code>errors</code> encountered
+	 */
+	public String getProgress() {
+		Map<String, Object> progress = new LinkedHashMap<>();
+		progress.put("total", entries.size());
+		progress.put("rendered", nRendered.get());
+		progress.put("skipped", nSkipped.get());
+		progress.put("failed", nFailed.get());
+		progress.put("written", nWritten.get());
+		progress.put("done", isDone());
+		progress.put("cancelled", cancelled);
+		progress.put("errors", List.copyOf(errors));
+		return GsonTools.getInstance().toJson(progress);
+	}
+}
@@ -0,0 +1,286 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Least-recently-used cache of encoded image regions, bounded by the total number of bytes.
+ *
+ * <p>
+ *     The cache is disabled until a size is set with {@link #setMaxBytes(long)}.
+ *     Encoded bytes are stored in direct {@link ByteBuffer ByteBuffers}, so they are kept
+ *     outside the Java heap used by QuPath; like all direct buffers, their memory is returned
+ *     once they are garbage collected after being evicted, so the process may briefly hold more
+ *     than the maximum size (the total is bounded by <code>-XX:MaxDirectMemorySize</code>).
+ *     The cache is shared by all gateway clients.
+ * </p>
+ * <p>
+ *     Regions are keyed by the path of their server and by the size and last modification time
+ *     of its local image files, so a file rewritten at the same path is read again.
+ *     Concurrent misses of the same region load it once: the callers that wait for the load
+ *     of another one are counted as <code>joined</code>, neither as hits nor as misses.
+ * </p>
+ */
+final class TileCache {
+
+	private static final TileCache INSTANCE = new TileCache(0);
+
+	private final Map<Key, ByteBuffer> map = new LinkedHashMap<>(256, 0.75f, true);
+	private final Map<Key, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder joined = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private volatile long maxBytes;
+	private long bytes = 0;
+
+	/**
+	 * Load the encoded bytes of a region when they are not cached.
+	 */
+	@FunctionalInterface
+	interface Loader {
+		byte[] load() throws IOException;
+	}
+
+	/**
+	 * Key of a cached region: the region is read from <code>serverPath</code>, whose image files
+	 * are in state <code>fileVersion</code>, and encoded in <code>format</code>.
+	 */
+	record Key(String serverPath, String fileVersion, RegionRequest request, String format) {
+
+		/**
+		 * Create the key of <code>request</code> read from <code>server</code> and encoded in <code>format</code>.
+		 *
+		 * @param server  the server the region is read from
+		 * @param request the region
+		 * @param format  the encoding of the region
+		 * @return the key
+		 */
+		static Key of(ImageServer<BufferedImage> server, RegionRequest request, String format) {
+			return new Key(server.getPath(), fileVersion(server), request, format);
+		}
+
+		private static String fileVersion(ImageServer<BufferedImage> server) {
+			var version = new StringBuilder();
+			for (var uri : server.getURIs()) {
+				if (!"file".equals(uri.getScheme())) {
+					continue;
+				}
+				var path = Path.of(uri);
+				try {
+					version.append(Files.size(path)).append(':')
+							.append(Files.getLastModifiedTime(path).toMillis()).append(';');
+				} catch (IOException e) {
+					// missing files are read (and fail) again rather than served from the cache
+					version.append("?;");
+				}
+			}
+			return version.toString();
+		}
+	}
+
+	/**
+	 * Snapshot of the cache counters.
+	 */
+	static class Statistics {
+		long hits;
+		long misses;
+		long joined;
+		long evictions;
+		int entries;
+		long bytes;
+		long maxBytes;
+	}
+
+	private TileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get the cache shared by all gateway clients.
+	 *
+	 * @return the shared cache
+	 */
+	static TileCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get the cached bytes of <code>request</code> read from <code>server</code> and encoded in <code>format</code>,
+	 * or load and cache them. When the cache is disabled, the bytes are loaded without building
+	 * the key of the region, which would read the attributes of the image files.
+	 *
+	 * @param server  the server the region is read from
+	 * @param request the region
+	 * @param format  the encoding of the region
+	 * @param loader  the loader used on a cache miss
+	 * @return a copy of the encoded bytes
+	 * @throws IOException if an error occurs while loading the bytes
+	 */
+	byte[] get(ImageServer<BufferedImage> server, RegionRequest request, String format, Loader loader) throws IOException {
+		if (maxBytes <= 0) {
+			return loader.load();
+		}
+		return get(Key.of(server, request, format), loader);
+	}
+
+	/**
+	 * Get the cached bytes of <code>key</code>, or load and cache them.
+	 * When the cache is disabled, the bytes are always loaded.
+	 *
+	 * @param key    the key of the region
+	 * @param loader the loader used on a cache miss
+	 * @return a copy of the encoded bytes
+	 * @throws IOException if an error occurs while loading the bytes
+	 */
+	byte[] get(Key key, Loader loader) throws IOException {
+		if (maxBytes <= 0) {
+			return loader.load();
+		}
+		var cached = getCached(key);
+		if (cached != null) {
+			hits.increment();
+			return cached;
+		}
+		var future = new CompletableFuture<byte[]>();
+		var pending = loading.computeIfAbsent(key, k -> future);
+		if (pending != future) {
+			// another client is loading the same region: wait for it rather than loading it again
+			joined.increment();
+			return join(pending);
+		}
+		try {
+			// the region may have been cached by a load that ended after the lookup above
+			cached = getCached(key);
+			if (cached != null) {
+				hits.increment();
+				future.complete(cached);
+				return cached.clone();
+			}
+			misses.increment();
+			var bytes = loader.load();
+			put(key, bytes);
+			future.complete(bytes);
+			return bytes;
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(key, future);
+		}
+	}
+
+	private synchronized byte[] getCached(Key key) {
+		var buffer = map.get(key);
+		if (buffer == null) {
+			return null;
+		}
+		var bytes = new byte[buffer.capacity()];
+		buffer.get(0, bytes);
+		return bytes;
+	}
+
+	private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+		try {
+			return future.join().clone();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException ioException) {
+				throw ioException;
+			}
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new UncheckedIOException(new IOException(e.getCause()));
+		}
+	}
+
+	private synchronized void put(Key key, byte[] encoded) {
+		if (encoded.length > maxBytes || map.containsKey(key)) {
+			return;
+		}
+		var buffer = ByteBuffer.allocateDirect(encoded.length);
+		buffer.put(0, encoded);
+		map.put(key, buffer);
+		bytes += encoded.length;
+		trim();
+	}
+
+	private void trim() {
+		Iterator<ByteBuffer> iterator = map.values().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().capacity();
+			iterator.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Set the maximum size of the cache, evicting the least recently used regions if needed.
+	 *
+	 * @param maxBytes the maximum size in bytes, or 0 to disable the cache
+	 */
+	synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+		trim();
+	}
+
+	/**
+	 * Remove all cached regions of the server with path <code>serverPath</code>.
+	 *
+	 * @param serverPath the path of the server, as returned by {@link ImageServer#getPath()}
+	 * @return the number of removed regions
+	 */
+	synchronized int invalidate(String serverPath) {
+		int removed = 0;
+		var iterator = map.entrySet().iterator();
+		while (iterator.hasNext()) {
+			var entry = iterator.next();
+			if (entry.getKey().serverPath().equals(serverPath)) {
+				bytes -= entry.getValue().capacity();
+				iterator.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Remove all cached regions. Counters are left unchanged.
+	 */
+	synchronized void clear() {
+		map.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Get a snapshot of the cache counters.
+	 *
+	 * @return the statistics
+	 */
+	synchronized Statistics getStatistics() {
+		var statistics = new Statistics();
+		statistics.hits = hits.sum();
+		statistics.misses = misses.sum();
+		statistics.joined = joined.sum();
+		statistics.evictions = evictions.sum();
+		statistics.entries = map.size();
+		statistics.bytes = bytes;
+		statistics.maxBytes = maxBytes;
+		return statistics;
+	}
+}
@@ -0,0 +1,217 @@
+package qupath.ext.py4j.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+
+
+/**
+ * Stream all tiles of one resolution level of an {@link ImageServer}.
+ *
+ * <p>
+ *     Tiles are read ahead of the consumer on a background thread, up to
+ *     <code>prefetch</code> tiles: once that many tiles are waiting to be consumed,
+ *     reading pauses until {@link #nextBatch(int)} is called again.
+ *     This keeps reading and decoding overlapped with the processing done by the consumer.
+ * </p>
+ * <p>
+ *     Each tile read ahead is a heavy call of the client that created the stream: it waits for the
+ *     permits of that client in {@link GatewayScheduler} before being read, and releases them once read,
+ *     so an open stream counts against the client quota and the global limit like any other read.
+ *     Waiting for tiles in {@link #nextBatch(int)} holds no permit.
+ * </p>
+ * <p>
+ *     Tiles are returned in the order of {@link #getRegions()}, packed as described in
+ *     {@link QuPathEZ#getImageBytesBatch(ImageServer, List, String)}.
+ *     A stream should be closed with {@link #close()} if it is not consumed entirely.
+ * </p>
+ */
+public class TileStream implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TileStream.class);
+
+	private final ImageServer<BufferedImage> server;
+	private final List<RegionRequest> requests;
+	private final String format;
+	private final boolean planar;
+	private final String clientId;
+	private final BlockingQueue<Prefetch> queue;
+	private final Thread producer;
+	private int position = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * A tile read ahead, with the permits taken to read it.
+	 */
+	private record Prefetch(Future<byte[]> future, GatewayScheduler.Admission admission) {
+
+		private void cancel() {
+			future.cancel(true);
+			// a read cancelled before it started never releases its permits itself
+			admission.release();
+		}
+	}
+
+	TileStream(
+			ImageServer<BufferedImage> server,
+			int level,
+			int z,
+			int t,
+			String format,
+			boolean planar,
+			int prefetch) {
+		if (level < 0 || level >= server.nResolutions()) {
+			throw new IllegalArgumentException("Resolution level " + level + " is out of range [0, " + server.nResolutions() + ")");
+		}
+		this.server = server;
+		this.format = format;
+		this.planar = planar;
+		this.requests = new ArrayList<>();
+		for (TileRequest tile : server.getTileRequestManager().getTileRequestsForLevel(level)) {
+			if (tile.getZ() == z && tile.getT() == t) {
+				requests.add(tile.getRegionRequest());
+			}
+		}
+		requests.sort(Comparator.comparingInt(RegionRequest::getY).thenComparingInt(RegionRequest::getX));
+		this.clientId = GatewayScheduler.getClientId();
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, prefetch));
+		this.producer = new Thread(this::produce, "py4j-tile-stream");
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	private void produce() {
+		try {
+			for (var request : requests) {
+				if (closed) {
+					return;
+				}
+				var admission = GatewayScheduler.admit(clientId);
+				var prefetch = new Prefetch(RegionBatchReader.submit(server, request, format, planar, admission::release), admission);
+				try {
+					queue.put(prefetch);
+				} catch (InterruptedException e) {
+					prefetch.cancel();
+					throw e;
+				}
+			}
+		} catch (InterruptedException | IllegalStateException e) {
+			// interrupted while waiting for space in the queue or for permits
+			logger.debug("Tile stream of {} interrupted", server.getPath());
+		}
+	}
+
+	/**
+	 * Get the regions of all tiles of this stream, in the order they are returned.
+	 *
+	 * @return the packed regions, as consecutive <code>x, y, width, height, z, t</code> values
+	 *         (full resolution coordinates)
+	 */
+	public int[] getRegions() {
+		var regions = new int[requests.size() * RegionBatchReader.VALUES_PER_REGION];
+		int i = 0;
+		for (var request : requests) {
+			regions[i++] = request.getX();
+			regions[i++] = request.getY();
+			regions[i++] = request.getWidth();
+			regions[i++] = request.getHeight();
+			regions[i++] = request.getZ();
+			regions[i++] = request.getT();
+		}
+		return regions;
+	}
+
+	/**
+	 * Get the downsample of all tiles of this stream.
+	 *
+	 * @return the downsample
+	 */
+	public double getDownsample() {
+		return requests.isEmpty() ? 1.0 : requests.get(0).getDownsample();
+	}
+
+	/**
+	 * Get the total number of tiles of this stream.
+	 *
+	 * @return the number of tiles
+	 */
+	public int size() {
+		return requests.size();
+	}
+
+	/**
+	 * Get the number of tiles already returned by {@link #nextBatch(int)}.
+	 *
+	 * @return the number of consumed tiles
+	 */
+	public synchronized int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Check if more tiles can be returned by {@link #nextBatch(int)}.
+	 *
+	 * @return true if some tiles have not been returned yet
+	 */
+	public synchronized boolean hasNext() {
+		return !closed && position < requests.size();
+	}
+
+	/**
+	 * Return the next <code>k</code> tiles (or fewer at the end of the stream),
+	 * waiting for them to be read if needed.
+	 *
+	 * @param k the maximum number of tiles to return
+	 * @return the packed tiles; it contains no tile once the stream is exhausted
+	 * @throws IOException if an error occurs while reading one of the tiles
+	 */
+	public synchronized byte[] nextBatch(int k) throws IOException {
+		// tiles are admitted when read ahead: waiting for them here must not hold permits the reads need
+		return GatewayMetrics.record("TileStream.nextBatch", () -> takeBatch(k));
+	}
+
+	private byte[] takeBatch(int k) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Tile stream is closed");
+		}
+		int n = Math.min(Math.max(k, 0), requests.size() - position);
+		var tiles = new ArrayList<byte[]>(n);
+		try {
+			for (int i = 0; i < n; i++) {
+				tiles.add(RegionBatchReader.get(queue.take().future()));
+				position++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for tiles", e);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		return RegionBatchReader.pack(tiles);
+	}
+
+	/**
+	 * Stop reading tiles and release the pending ones.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		producer.interrupt();
+		Prefetch prefetch;
+		while ((prefetch = queue.poll()) != null) {
+			prefetch.cancel();
+		}
+	}
+}
@@ -0,0 +1,541 @@
+package qupath.ext.py4j.core;
+
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.AbstractTileableImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.writers.ome.OMEPyramidWriter;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+
+/**
+ * Write an image generated in Python (e.g. a probability map) as a pyramidal OME-TIFF.
+ *
+ * <p>
+ *     Full resolution tiles are sent one at a time by {@link #writeTile(int, int, byte[])}
+ *     as raw little-endian samples, interleaved (<code>HWC</code>), and stored in a temporary file
+ *     rather than in memory. Tiles that are never written are filled with zeros.
+ * </p>
+ * <p>
+ *     {@link #write(String, String)} then builds each lower resolution (4 times smaller at each step)
+ *     from the previous one by averaging blocks of pixels into temporary files, computing the rows
+ *     of the lower resolution in parallel, so the image is never held in memory as a whole and
+ *     each level costs a pass over the level above.
+ *     Tiles written while the pyramid is being written wait until it is done, so a written file
+ *     never mixes tiles from before and after a call to {@link #writeTile(int, int, byte[])}.
+ *     The pyramid is written with {@link OMEPyramidWriter}, which reads and compresses the tiles
+ *     of each level in parallel, bypassing the tile cache of QuPath.
+ * </p>
+ */
+public class TiledImageWriter implements AutoCloseable {
+
+	private static final int LEVEL_FACTOR = 4;
+
+	private final int width;
+	private final int height;
+	private final int nChannels;
+	private final int tileSize;
+	private final PixelType pixelType;
+	private final int bytesPerPixel;
+	private final Path backingPath;
+	private final FileChannel channel;
+	private final BitSet writtenTiles = new BitSet();
+	private final int nTilesX;
+	private final int nTilesY;
+	private final List<Level> levels = new ArrayList<>();
+	// tiles are written under the read lock, so they can be written concurrently but not while
+	// the pyramid is written or the writer is closed, which take the write lock
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private int generation = 0;
+	private double pixelSizeMicrons = Double.NaN;
+
+	/**
+	 * One resolution of the image, stored as raw little-endian interleaved samples in a file.
+	 */
+	private record Level(int width, int height, FileChannel channel) {}
+
+	/**
+	 * Create a writer of a <code>width</code> x <code>height</code> image.
+	 *
+	 * @param width     the width of the image
+	 * @param height    the height of the image
+	 * @param nChannels the number of channels of the image
+	 * @param dtype     the numpy dtype of the samples (e.g. <code>uint8</code>, <code>float32</code>)
+	 * @param tileSize  the width and height of the tiles
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	TiledImageWriter(int width, int height, int nChannels, String dtype, int tileSize) throws IOException {
+		if (width <= 0 || height <= 0 || nChannels <= 0 || tileSize <= 0) {
+			throw new IllegalArgumentException("Width, height, number of channels and tile size must be > 0");
+		}
+		this.width = width;
+		this.height = height;
+		this.nChannels = nChannels;
+		this.tileSize = tileSize;
+		this.pixelType = PixelType.valueOf(dtype.toUpperCase(Locale.ROOT));
+		this.bytesPerPixel = pixelType.getBytesPerPixel() * nChannels;
+		this.nTilesX = (width + tileSize - 1) / tileSize;
+		this.nTilesY = (height + tileSize - 1) / tileSize;
+		this.backingPath = Files.createTempFile("qupath-py4j-", ".pixels");
+		this.backingPath.toFile().deleteOnExit();
+		this.channel = FileChannel.open(backingPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.levels.add(new Level(width, height, channel));
+	}
+
+	/**
+	 * Set the pixel size of the written image.
+	 *
+	 * @param pixelSizeMicrons the width and height of a pixel in microns, or NaN if unknown
+	 */
+	public void setPixelSizeMicrons(double pixelSizeMicrons) {
+		this.pixelSizeMicrons = pixelSizeMicrons;
+	}
+
+	/**
+	 * Get the number of tiles along x.
+	 *
+	 * @return the number of columns of tiles
+	 */
+	public int getTilesX() {
+		return nTilesX;
+	}
+
+	/**
+	 * Get the number of tiles along y.
+	 *
+	 * @return the number of rows of tiles
+	 */
+	public int getTilesY() {
+		return nTilesY;
+	}
+
+	/**
+	 * Get the number of tiles written so far.
+	 *
+	 * @return the number of distinct written tiles
+	 */
+	public synchronized int getWrittenTileCount() {
+		return writtenTiles.cardinality();
+	}
+
+	/**
+	 * Write the full resolution tile at column <code>tileX</code> and row <code>tileY</code>.
+	 * Tiles can be written in any order and from several threads; writing a tile again replaces it.
+	 * While {@link #write(String, String)} is running, this waits until the pyramid is written.
+	 *
+	 * @param tileX the column of the tile
+	 * @param tileY the row of the tile
+	 * @param data  the samples of the tile, little-endian and interleaved (<code>HWC</code>);
+	 *              tiles of the last column and row are cropped to the image
+	 * @throws IOException if an error occurs while storing the tile
+	 */
+	public void writeTile(int tileX, int tileY, byte[] data) throws IOException {
+		writeTile(tileX, tileY, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Write the full resolution tile at column <code>tileX</code> and row <code>tileY</code>
+	 * from file <code>path</code> (e.g. in shared memory), with the layout of {@link #writeTile(int, int, byte[])}.
+	 *
+	 * @param tileX the column of the tile
+	 * @param tileY the row of the tile
+	 * @param path  the file containing the samples of the tile
+	 * @throws IOException if an error occurs while reading the file or storing the tile
+	 */
+	public void writeTileFromFile(int tileX, int tileY, String path) throws IOException {
+		try (var source = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			writeTile(tileX, tileY, source.map(FileChannel.MapMode.READ_ONLY, 0, source.size()));
+		}
+	}
+
+	private void writeTile(int tileX, int tileY, ByteBuffer data) throws IOException {
+		if (tileX < 0 || tileX >= nTilesX || tileY < 0 || tileY >= nTilesY) {
+			throw new IllegalArgumentException("Tile (" + tileX + ", " + tileY + ") is outside the " +
+					nTilesX + "x" + nTilesY + " tiles of the image");
+		}
+		int x = tileX * tileSize;
+		int y = tileY * tileSize;
+		int w = Math.min(tileSize, width - x);
+		int h = Math.min(tileSize, height - y);
+		long rowBytes = (long) w * bytesPerPixel;
+		if (data.remaining() != rowBytes * h) {
+			throw new IllegalArgumentException("Tile (" + tileX + ", " + tileY + ") is " + w + "x" + h +
+					" and needs " + rowBytes * h + " bytes, but " + data.remaining() + " bytes were provided");
+		}
+		lock.readLock().lock();
+		try {
+			for (int row = 0; row < h; row++) {
+				var rowBuffer = data.slice((int) (row * rowBytes), (int) rowBytes);
+				long position = ((long) (y + row) * width + x) * bytesPerPixel;
+				while (rowBuffer.hasRemaining()) {
+					position += channel.write(rowBuffer, position);
+				}
+			}
+			synchronized (this) {
+				writtenTiles.set(tileY * nTilesX + tileX);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Write the image as a pyramidal OME-TIFF.
+	 * Tiles cannot be written meanwhile: {@link #writeTile(int, int, byte[])} waits until this returns.
+	 *
+	 * @param path        the file to write
+	 * @param compression the compression of the tiles, as the name of an {@link OMEPyramidWriter.CompressionType}
+	 *                    (e.g. <code>ZLIB</code>, <code>LZW</code>, <code>JPEG</code>), or <b>null</b> for the default one
+	 * @throws IOException if an error occurs while writing the file
+	 */
+	public void write(String path, String compression) throws IOException {
+		var type = compression == null || compression.isBlank() ?
+				OMEPyramidWriter.CompressionType.DEFAULT :
+				OMEPyramidWriter.CompressionType.valueOf(compression.toUpperCase(Locale.ROOT));
+		GatewayScheduler.run("TiledImageWriter.write", () -> {
+			lock.writeLock().lock();
+			try {
+				// each write gets its own server id, so tiles of a previous write are never reused
+				generation++;
+				var server = new BackingServer(this);
+				try {
+					buildLevels(server.getPreferredDownsamples().length);
+					new OMEPyramidWriter.Builder(server)
+							.tileSize(tileSize)
+							.downsamples(server.getPreferredDownsamples())
+							.compression(type)
+							.parallelize()
+							.build()
+							.writePyramid(path);
+				} finally {
+					clearLevels();
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Build the <code>nLevels - 1</code> lower resolutions, each one from the previous one.
+	 */
+	void buildLevels(int nLevels) throws IOException {
+		clearLevels();
+		for (int i = 1; i < nLevels; i++) {
+			var levelPath = Files.createTempFile("qupath-py4j-", ".level" + i);
+			var levelChannel = FileChannel.open(levelPath,
+					StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			var previous = levels.get(i - 1);
+			var level = new Level(
+					(previous.width() + LEVEL_FACTOR - 1) / LEVEL_FACTOR,
+					(previous.height() + LEVEL_FACTOR - 1) / LEVEL_FACTOR,
+					levelChannel);
+			levels.add(level);
+			downsample(previous, level);
+		}
+	}
+
+	/**
+	 * Close and delete the lower resolutions built by {@link #buildLevels(int)}.
+	 */
+	private void clearLevels() throws IOException {
+		while (levels.size() > 1) {
+			levels.remove(levels.size() - 1).channel().close();
+		}
+	}
+
+	/**
+	 * Write the image as a pyramidal OME-TIFF and add it to <code>project</code>.
+	 *
+	 * @param path        the file to write
+	 * @param compression the compression of the tiles, as in {@link #write(String, String)}
+	 * @param project     the project to add the written image to
+	 * @return the added image entry
+	 * @throws Exception if an error occurs while writing the file or adding it to the project
+	 *
+	 * @see QuPathEZ#importImage(Project, String)
+	 */
+	public ProjectImageEntry<BufferedImage> writeToProject(
+			String path,
+			String compression,
+			Project<BufferedImage> project) throws Exception {
+		write(path, compression);
+		return QuPathEZ.importImage(project, Paths.get(path).toUri().toString()).getEntry();
+	}
+
+	/**
+	 * Delete the temporary file holding the tiles.
+	 *
+	 * @throws IOException if an error occurs while deleting the file
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			clearLevels();
+			channel.close();
+			Files.deleteIfExists(backingPath);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Write into <code>target</code> the average of each block of {@value #LEVEL_FACTOR} x {@value #LEVEL_FACTOR}
+	 * samples of <code>source</code>. Rows of <code>target</code> are independent, so they are computed
+	 * in parallel, each one reading its {@value #LEVEL_FACTOR} rows of <code>source</code>.
+	 */
+	private void downsample(Level source, Level target) throws IOException {
+		// buffers are reused by the rows computed on the same thread
+		var buffers = ThreadLocal.withInitial(() -> new DownsampleBuffers(
+				ByteBuffer.allocate(source.width() * bytesPerPixel).order(ByteOrder.LITTLE_ENDIAN),
+				ByteBuffer.allocate(target.width() * bytesPerPixel).order(ByteOrder.LITTLE_ENDIAN),
+				new double[target.width() * nChannels],
+				new int[target.width()]));
+		try {
+			IntStream.range(0, target.height()).parallel().forEach(y -> {
+				try {
+					downsampleRow(source, target, y, buffers.get());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private record DownsampleBuffers(ByteBuffer sourceRow, ByteBuffer targetRow, double[] sums, int[] counts) {}
+
+	private void downsampleRow(Level source, Level target, int y, DownsampleBuffers buffers) throws IOException {
+		int bytesPerSample = pixelType.getBytesPerPixel();
+		var sourceRow = buffers.sourceRow();
+		var targetRow = buffers.targetRow();
+		var sums = buffers.sums();
+		var counts = buffers.counts();
+		Arrays.fill(sums, 0);
+		Arrays.fill(counts, 0);
+		for (int dy = 0; dy < LEVEL_FACTOR; dy++) {
+			int sourceY = y * LEVEL_FACTOR + dy;
+			if (sourceY >= source.height()) {
+				break;
+			}
+			readRow(source, sourceY, 0, source.width(), sourceRow);
+			for (int i = 0; i < source.width(); i++) {
+				int x = i / LEVEL_FACTOR;
+				counts[x]++;
+				for (int c = 0; c < nChannels; c++) {
+					sums[x * nChannels + c] += sample(sourceRow, (i * nChannels + c) * bytesPerSample);
+				}
+			}
+		}
+		targetRow.clear();
+		for (int x = 0; x < target.width(); x++) {
+			for (int c = 0; c < nChannels; c++) {
+				double value = counts[x] == 0 ? 0 : sums[x * nChannels + c] / counts[x];
+				putSample(targetRow, (x * nChannels + c) * bytesPerSample, value);
+			}
+		}
+		long position = (long) y * target.width() * bytesPerPixel;
+		while (targetRow.hasRemaining()) {
+			position += target.channel().write(targetRow, position);
+		}
+	}
+
+	/**
+	 * Read <code>n</code> pixels of row <code>y</code> of <code>level</code> starting at <code>x</code> into <code>row</code>.
+	 * The position of <code>row</code> is left after the last sample actually stored in the file;
+	 * samples beyond it were never written and are zeros.
+	 */
+	private void readRow(Level level, int y, int x, int n, ByteBuffer row) throws IOException {
+		row.clear();
+		row.limit(n * bytesPerPixel);
+		long position = ((long) y * level.width() + x) * bytesPerPixel;
+		while (row.hasRemaining()) {
+			if (level.channel().read(row, position + row.position()) < 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Read the <code>outWidth</code> x <code>outHeight</code> pixels of resolution <code>levelIndex</code>
+	 * starting at <code>x</code>, <code>y</code> (in the pixels of that resolution).
+	 */
+	BufferedImage readLevel(int levelIndex, int x, int y, int outWidth, int outHeight) throws IOException {
+		var level = levels.get(levelIndex);
+		int bytesPerSample = pixelType.getBytesPerPixel();
+		var raster = Raster.createWritableRaster(
+				new BandedSampleModel(dataBufferType(), outWidth, outHeight, nChannels), null);
+		var row = ByteBuffer.allocate(level.width() * bytesPerPixel).order(ByteOrder.LITTLE_ENDIAN);
+		int readWidth = Math.min(outWidth, level.width() - x);
+		for (int outY = 0; outY < outHeight && y + outY < level.height() && readWidth > 0; outY++) {
+			readRow(level, y + outY, x, readWidth, row);
+			for (int outX = 0; outX < readWidth; outX++) {
+				for (int c = 0; c < nChannels; c++) {
+					setSample(raster, outX, outY, c, row, (outX * nChannels + c) * bytesPerSample);
+				}
+			}
+		}
+		var colorModel = ColorModelFactory.createColorModel(pixelType, ImageChannel.getDefaultChannelList(nChannels));
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+	/**
+	 * Copy a sample of <code>row</code> into <code>raster</code>, keeping the bits of integer samples
+	 * (setting them as doubles would clamp unsigned 32-bit values).
+	 */
+	private void setSample(WritableRaster raster, int x, int y, int c, ByteBuffer row, int index) {
+		if (index >= row.position()) {
+			return;
+		}
+		switch (pixelType) {
+			case UINT8, INT8 -> raster.setSample(x, y, c, row.get(index));
+			case UINT16, INT16 -> raster.setSample(x, y, c, row.getShort(index));
+			case UINT32, INT32 -> raster.setSample(x, y, c, row.getInt(index));
+			case FLOAT32 -> raster.setSample(x, y, c, row.getFloat(index));
+			case FLOAT64 -> raster.setSample(x, y, c, row.getDouble(index));
+		}
+	}
+
+	/**
+	 * Write <code>value</code> at <code>index</code> of <code>row</code> in the pixel type of the image,
+	 * rounding integer samples.
+	 */
+	private void putSample(ByteBuffer row, int index, double value) {
+		switch (pixelType) {
+			case UINT8, INT8 -> row.put(index, (byte) Math.round(value));
+			case UINT16, INT16 -> row.putShort(index, (short) Math.round(value));
+			case UINT32, INT32 -> row.putInt(index, (int) Math.round(value));
+			case FLOAT32 -> row.putFloat(index, (float) value);
+			case FLOAT64 -> row.putDouble(index, value);
+		}
+	}
+
+	private double sample(ByteBuffer row, int index) {
+		if (index >= row.position()) {
+			return 0;
+		}
+		return switch (pixelType) {
+			case UINT8 -> row.get(index) & 0xFF;
+			case INT8 -> row.get(index);
+			case UINT16 -> row.getShort(index) & 0xFFFF;
+			case INT16 -> row.getShort(index);
+			case UINT32 -> row.getInt(index) & 0xFFFFFFFFL;
+			case INT32 -> row.getInt(index);
+			case FLOAT32 -> row.getFloat(index);
+			case FLOAT64 -> row.getDouble(index);
+		};
+	}
+
+	private int dataBufferType() {
+		return switch (pixelType) {
+			case UINT8, INT8 -> DataBuffer.TYPE_BYTE;
+			case UINT16 -> DataBuffer.TYPE_USHORT;
+			case INT16 -> DataBuffer.TYPE_SHORT;
+			case UINT32, INT32 -> DataBuffer.TYPE_INT;
+			case FLOAT32 -> DataBuffer.TYPE_FLOAT;
+			case FLOAT64 -> DataBuffer.TYPE_DOUBLE;
+		};
+	}
+
+	/**
+	 * The image server read by {@link OMEPyramidWriter}, whose tiles come from the temporary file.
+	 */
+	private static class BackingServer extends AbstractTileableImageServer {
+
+		private final TiledImageWriter writer;
+		private final ImageServerMetadata metadata;
+
+		private BackingServer(TiledImageWriter writer) {
+			this.writer = writer;
+			var downsamples = new ArrayList<Double>();
+			for (double downsample = 1; downsample == 1 ||
+					Math.max(writer.width, writer.height) / downsample >= writer.tileSize; downsample *= LEVEL_FACTOR) {
+				downsamples.add(downsample);
+			}
+			var builder = new ImageServerMetadata.Builder()
+					.width(writer.width)
+					.height(writer.height)
+					.channels(ImageChannel.getDefaultChannelList(writer.nChannels))
+					.pixelType(writer.pixelType)
+					.rgb(false)
+					.preferredTileSize(writer.tileSize, writer.tileSize)
+					.levelsFromDownsamples(downsamples.stream().mapToDouble(Double::doubleValue).toArray())
+					.name(writer.backingPath.getFileName().toString());
+			if (!Double.isNaN(writer.pixelSizeMicrons)) {
+				builder.pixelSizeMicrons(writer.pixelSizeMicrons, writer.pixelSizeMicrons);
+			}
+			this.metadata = builder.build();
+		}
+
+		@Override
+		protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
+			return writer.readLevel(tileRequest.getLevel(), tileRequest.getTileX(), tileRequest.getTileY(),
+					tileRequest.getTileWidth(), tileRequest.getTileHeight());
+		}
+
+		@Override
+		protected Map<RegionRequest, BufferedImage> getCache() {
+			// tiles are only read once by the pyramid writer: keep them out of the tile cache of the viewers
+			return null;
+		}
+
+		@Override
+		protected ServerBuilder<BufferedImage> createServerBuilder() {
+			return null;
+		}
+
+		@Override
+		protected String createID() {
+			return getClass().getName() + ": " + writer.backingPath.toUri() + "#" + writer.generation;
+		}
+
+		@Override
+		public Collection<URI> getURIs() {
+			return List.of(writer.backingPath.toUri());
+		}
+
+		@Override
+		public String getServerType() {
+			return "Tiled image writer";
+		}
+
+		@Override
+		public ImageServerMetadata getOriginalMetadata() {
+			return metadata;
+		}
+	}
+}
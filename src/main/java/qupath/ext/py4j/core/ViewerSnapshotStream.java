@@ -0,0 +1,279 @@
+package qupath.ext.py4j.core;
+
+import javafx.animation.AnimationTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.gui.tools.GuiTools;
+import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.io.GsonTools;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Capture a viewer at a target frame rate and keep its latest frame, encoded, for Python to pull.
+ *
+ * <p>
+ *     Frames are captured on the pulses of the JavaFX application thread, which only renders the viewer;
+ *     encoding is done on a background thread. When the encoding of the previous frame is not done yet,
+ *     the pulse is skipped, and frames replaced before being pulled are dropped, so a slow consumer
+ *     never makes frames pile up nor delays the GUI.
+ * </p>
+ * <p>
+ *     Frames are encoded as JPEG, or as raw interleaved RGB pixels with the header described in
+ *     {@link QuPathEZ#getRawPixels(qupath.lib.images.servers.ImageServer, qupath.lib.regions.RegionRequest, boolean) getRawPixels}.
+ *     Frames pulled with {@link #getFrameAfter(long)} are preceded by a header of {@link #FRAME_HEADER_SIZE} bytes
+ *     holding the index and the timestamp of the frame, so that a consumer knows which frame it received.
+ * </p>
+ */
+public class ViewerSnapshotStream implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ViewerSnapshotStream.class);
+
+	/**
+	 * Format of frames encoded as JPEG.
+	 */
+	static final String FORMAT_JPEG = "jpg";
+	/**
+	 * Format of frames encoded as raw RGB pixels.
+	 */
+	static final String FORMAT_RAW = "raw";
+	/**
+	 * Size of the header of frames returned by {@link #getFrameAfter(long)}: the index of the frame
+	 * then its timestamp in milliseconds, as two little-endian longs.
+	 */
+	public static final int FRAME_HEADER_SIZE = 16;
+
+	private final QuPathViewer viewer;
+	private final long frameIntervalNanos;
+	private final String format;
+	private final float quality;
+	private final ExecutorService encoder = Executors.newSingleThreadExecutor(runnable -> {
+		var thread = new Thread(runnable, "py4j-snapshot-encoder");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicBoolean encoding = new AtomicBoolean(false);
+	private final AtomicReference<Frame> latest = new AtomicReference<>();
+	private final LongAdder captured = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder pulled = new LongAdder();
+	private final AnimationTimer timer;
+	private volatile boolean closed = false;
+	private long frameIndex = 0;
+
+	/**
+	 * An encoded frame, stored with its header so that it can be returned by {@link #getFrameAfter(long)} without copy.
+	 */
+	private record Frame(long index, long timestampMillis, byte[] framed, AtomicBoolean pulled) {}
+
+	/**
+	 * Start capturing <code>viewer</code>.
+	 *
+	 * @param viewer  the viewer to capture
+	 * @param fps     the target number of frames per second
+	 * @param format  {@link #FORMAT_JPEG} or {@link #FORMAT_RAW}
+	 * @param quality the JPEG quality, between 0 and 1
+	 */
+	ViewerSnapshotStream(QuPathViewer viewer, double fps, String format, double quality) {
+		if (fps <= 0) {
+			throw new IllegalArgumentException("The frame rate must be > 0");
+		}
+		this.viewer = viewer;
+		this.frameIntervalNanos = Math.round(1e9 / fps);
+		this.format = format == null ? FORMAT_JPEG : format.toLowerCase(Locale.ROOT);
+		if (!this.format.equals(FORMAT_JPEG) && !this.format.equals(FORMAT_RAW)) {
+			throw new IllegalArgumentException("Unknown snapshot format " + format + " (expected jpg or raw)");
+		}
+		this.quality = (float) Math.min(Math.max(quality, 0), 1);
+		this.timer = new AnimationTimer() {
+			private long lastCapture = Long.MIN_VALUE;
+
+			@Override
+			public void handle(long now) {
+				if (closed) {
+					return;
+				}
+				if (lastCapture != Long.MIN_VALUE && now - lastCapture < frameIntervalNanos) {
+					return;
+				}
+				lastCapture = now;
+				capture();
+			}
+		};
+		FXDispatcher.runAsync(() -> {
+			if (!closed) {
+				timer.start();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Capture the viewer, on the JavaFX application thread.
+	 */
+	private void capture() {
+		if (closed) {
+			return;
+		}
+		if (!encoding.compareAndSet(false, true)) {
+			skipped.increment();
+			return;
+		}
+		BufferedImage snapshot;
+		try {
+			snapshot = GuiTools.makeViewerSnapshot(viewer);
+		} catch (RuntimeException e) {
+			encoding.set(false);
+			logger.debug("Unable to capture viewer", e);
+			return;
+		}
+		captured.increment();
+		long index = ++frameIndex;
+		long timestamp = System.currentTimeMillis();
+		try {
+			encoder.execute(() -> {
+				try {
+					var frame = new Frame(index, timestamp, withHeader(index, timestamp, encode(snapshot)), new AtomicBoolean(false));
+					var previous = latest.getAndSet(frame);
+					if (previous != null && !previous.pulled().get()) {
+						dropped.increment();
+					}
+				} catch (IOException | RuntimeException e) {
+					logger.debug("Unable to encode viewer snapshot", e);
+				} finally {
+					encoding.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed between the check above and now: the timer is being stopped
+			encoding.set(false);
+		}
+	}
+
+	private static byte[] withHeader(long index, long timestampMillis, byte[] encoded) {
+		var framed = new byte[FRAME_HEADER_SIZE + encoded.length];
+		ByteBuffer.wrap(framed).order(ByteOrder.LITTLE_ENDIAN)
+				.putLong(index)
+				.putLong(timestampMillis)
+				.put(encoded);
+		return framed;
+	}
+
+	private byte[] encode(BufferedImage snapshot) throws IOException {
+		// draw into an opaque RGB image, as JPEG has no alpha and raw frames have 3 channels
+		var rgb = new BufferedImage(snapshot.getWidth(), snapshot.getHeight(), BufferedImage.TYPE_INT_RGB);
+		var g2d = rgb.createGraphics();
+		g2d.drawImage(snapshot, 0, 0, null);
+		g2d.dispose();
+		if (FORMAT_RAW.equals(format)) {
+			return PixelBuffers.toRawBytes(rgb, PixelType.UINT8, false);
+		}
+		var writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		var stream = new ByteArrayOutputStream();
+		try (var output = ImageIO.createImageOutputStream(stream)) {
+			writer.setOutput(output);
+			var param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.write(null, new IIOImage(rgb, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return stream.toByteArray();
+	}
+
+	/**
+	 * Get the latest encoded frame, without header.
+	 *
+	 * @return the latest frame, or <b>null</b> if no frame has been encoded yet
+	 */
+	public byte[] getLatestFrame() {
+		var frame = pull(latest.get());
+		return frame == null ? null : Arrays.copyOfRange(frame.framed(), FRAME_HEADER_SIZE, frame.framed().length);
+	}
+
+	/**
+	 * Get the latest encoded frame if it is more recent than frame <code>index</code>.
+	 * This lets a consumer poll often without transferring the same frame again.
+	 *
+	 * @param index the index of the last frame received, or 0
+	 * @return the latest frame preceded by its header of {@link #FRAME_HEADER_SIZE} bytes (its index, which can be
+	 *         passed to the next call, and its timestamp), or <b>null</b> if there is no frame more recent than <code>index</code>
+	 */
+	public byte[] getFrameAfter(long index) {
+		var frame = latest.get();
+		if (frame == null || frame.index() <= index) {
+			return null;
+		}
+		return pull(frame).framed();
+	}
+
+	private Frame pull(Frame frame) {
+		if (frame != null && frame.pulled().compareAndSet(false, true)) {
+			pulled.increment();
+		}
+		return frame;
+	}
+
+	/**
+	 * Get the index of the latest encoded frame, frames being numbered from 1.
+	 *
+	 * @return the index of the latest frame, or 0 if no frame has been encoded yet
+	 */
+	public long getLatestFrameIndex() {
+		var frame = latest.get();
+		return frame == null ? 0 : frame.index();
+	}
+
+	/**
+	 * Get the counters of this stream.
+	 *
+	 * @return a JSON object with the number of <code>captured</code> frames, of pulses <code>skipped</code>
+	 *         because the previous frame was still being encoded, of frames <code>dropped</code>
+	 *         before being pulled and of <code>pulled</code> frames, and the index and timestamp of the latest frame
+	 */
+	public String getStatistics() {
+		var statistics = new LinkedHashMap<String, Object>();
+		statistics.put("captured", captured.sum());
+		statistics.put("skipped", skipped.sum());
+		statistics.put("dropped", dropped.sum());
+		statistics.put("pulled", pulled.sum());
+		var frame = latest.get();
+		statistics.put("latestIndex", frame == null ? 0 : frame.index());
+		statistics.put("latestTimestampMillis", frame == null ? 0 : frame.timestampMillis());
+		return GsonTools.getInstance().toJson(statistics);
+	}
+
+	/**
+	 * Stop capturing the viewer. The latest frame can still be pulled.
+	 * Pulses received before the timer is stopped on the JavaFX application thread are ignored.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		FXDispatcher.runAsync(() -> {
+			timer.stop();
+			return null;
+		});
+		encoder.shutdown();
+	}
+}
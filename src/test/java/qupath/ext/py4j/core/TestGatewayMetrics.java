@@ -0,0 +1,54 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestGatewayMetrics {
+
+	@BeforeEach
+	public void resetMetrics() {
+		GatewayMetrics.setEnabled(true);
+		GatewayMetrics.reset();
+	}
+
+	@AfterEach
+	public void clearMetrics() {
+		GatewayMetrics.reset();
+	}
+
+	@Test
+	public void testCallsAndBytesAreRecorded() {
+		GatewayMetrics.record("method", () -> new byte[10]);
+		GatewayMetrics.record("method", () -> new byte[5]);
+
+		var metrics = GatewayMetrics.snapshot().get("method");
+
+		assertEquals(2L, metrics.get("calls"));
+		assertEquals(15L, metrics.get("bytes"));
+	}
+
+	@Test
+	public void testErrorsAreRecorded() {
+		assertThrows(IllegalStateException.class, () -> GatewayMetrics.record("failing", () -> {
+			throw new IllegalStateException();
+		}));
+
+		assertEquals(1L, GatewayMetrics.snapshot().get("failing").get("errors"));
+	}
+
+	@Test
+	public void testOnlyOutermostCallIsRecorded() {
+		GatewayMetrics.record("outer", () -> GatewayMetrics.record("inner", () -> new byte[8]));
+
+		var snapshot = GatewayMetrics.snapshot();
+
+		assertEquals(1L, snapshot.get("outer").get("calls"));
+		assertEquals(8L, snapshot.get("outer").get("bytes"));
+		assertFalse(snapshot.containsKey("inner"));
+	}
+}
@@ -0,0 +1,136 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestGatewayScheduler {
+
+	@AfterEach
+	public void resetScheduler() {
+		GatewayScheduler.configure(0, 0);
+	}
+
+	@Test
+	public void testNestedCallOnSameThreadReusesPermits() {
+		GatewayScheduler.configure(1, 1);
+
+		int result = assertTimeoutPreemptively(Duration.ofSeconds(10),
+				() -> GatewayScheduler.run("outer", () -> GatewayScheduler.run("inner", () -> 42)));
+
+		assertEquals(42, result);
+	}
+
+	@Test
+	public void testGlobalLimitBoundsConcurrentCalls() throws Exception {
+		GatewayScheduler.configure(2, 0);
+		var running = new AtomicInteger();
+		var maxRunning = new AtomicInteger();
+		var start = new CountDownLatch(1);
+		var pool = Executors.newFixedThreadPool(8);
+		try {
+			var futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(pool.submit(() -> {
+					start.await();
+					return GatewayScheduler.run("call", () -> {
+						maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+						Thread.sleep(20);
+						return running.decrementAndGet();
+					});
+				}));
+			}
+			start.countDown();
+			for (var future : futures) {
+				future.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertTrue(maxRunning.get() <= 2, "At most 2 calls should run at the same time, but " + maxRunning.get() + " did");
+	}
+
+	@Test
+	public void testConnectionsWithoutIdShareQuota() throws Exception {
+		GatewayScheduler.configure(0, 1);
+		var running = new AtomicInteger();
+		var maxRunning = new AtomicInteger();
+		var pool = Executors.newFixedThreadPool(4);
+		try {
+			var futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(pool.submit(() -> GatewayScheduler.run("call", () -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.sleep(20);
+					return running.decrementAndGet();
+				})));
+			}
+			for (var future : futures) {
+				future.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void testIdleClientsAreForgotten() {
+		GatewayScheduler.configure(0, 1);
+		GatewayScheduler.setClientId("client");
+		try {
+			GatewayScheduler.run("call", () -> 1);
+		} finally {
+			GatewayScheduler.setClientId(null);
+		}
+
+		assertEquals(Map.of(), GatewayScheduler.getStatistics().get("clients"));
+	}
+
+	@Test
+	public void testEncodedBatchWithSinglePermit() {
+		GatewayScheduler.configure(1, 1);
+		var server = new WrappedBufferedImageServer("batch", new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB));
+		int[] regions = new int[8 * RegionBatchReader.VALUES_PER_REGION];
+		for (int i = 0; i < 8; i++) {
+			regions[i * RegionBatchReader.VALUES_PER_REGION] = (i % 4) * 64;
+			regions[i * RegionBatchReader.VALUES_PER_REGION + 1] = (i / 4) * 64;
+			regions[i * RegionBatchReader.VALUES_PER_REGION + 2] = 64;
+			regions[i * RegionBatchReader.VALUES_PER_REGION + 3] = 64;
+		}
+
+		byte[] batch = assertTimeoutPreemptively(Duration.ofSeconds(30),
+				() -> QuPathEZ.getImageBytesBatch(server, 1.0, regions, "png"));
+
+		assertEquals(8, ByteBuffer.wrap(batch).order(ByteOrder.LITTLE_ENDIAN).getInt(4));
+	}
+
+	@Test
+	public void testEncodedTileStreamWithSinglePermit() {
+		GatewayScheduler.configure(1, 1);
+		var server = new WrappedBufferedImageServer("stream", new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB));
+
+		try (var stream = new TileStream(server, 0, 0, 0, "png", false, 4)) {
+			byte[] batch = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> stream.nextBatch(stream.size()));
+
+			assertEquals(stream.size(), ByteBuffer.wrap(batch).order(ByteOrder.LITTLE_ENDIAN).getInt(4));
+		}
+	}
+}
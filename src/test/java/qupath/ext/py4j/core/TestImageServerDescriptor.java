@@ -0,0 +1,74 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestImageServerDescriptor {
+
+	private Path file;
+
+	@BeforeEach
+	public void createFile() throws Exception {
+		file = Files.createTempFile("image-", ".tif");
+		Files.write(file, new byte[16]);
+	}
+
+	@AfterEach
+	public void deleteFile() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testUnchangedFileIsUpToDate() throws Exception {
+		var files = ImageServerDescriptor.describeFiles(List.of(file.toUri()));
+
+		assertTrue(ImageServerDescriptor.isUpToDate(files));
+	}
+
+	@Test
+	public void testRemoteURIsAreNotDescribed() throws Exception {
+		var files = ImageServerDescriptor.describeFiles(List.of(file.toUri(), URI.create("https://example.org/image.tif")));
+
+		assertEquals(1, files.size());
+	}
+
+	@Test
+	public void testResizedFileIsOutOfDate() throws Exception {
+		var files = ImageServerDescriptor.describeFiles(List.of(file.toUri()));
+		var lastModified = Files.getLastModifiedTime(file);
+
+		Files.write(file, new byte[32]);
+		Files.setLastModifiedTime(file, lastModified);
+
+		assertFalse(ImageServerDescriptor.isUpToDate(files));
+	}
+
+	@Test
+	public void testModifiedFileIsOutOfDate() throws Exception {
+		var files = ImageServerDescriptor.describeFiles(List.of(file.toUri()));
+
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+		assertFalse(ImageServerDescriptor.isUpToDate(files));
+	}
+
+	@Test
+	public void testDeletedFileIsOutOfDate() throws Exception {
+		var files = ImageServerDescriptor.describeFiles(List.of(file.toUri()));
+
+		Files.delete(file);
+
+		assertFalse(ImageServerDescriptor.isUpToDate(files));
+	}
+}
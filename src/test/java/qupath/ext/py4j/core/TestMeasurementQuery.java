@@ -0,0 +1,85 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestMeasurementQuery {
+
+	private static PathObject createDetection(double x, String className, double area) {
+		var detection = PathObjects.createDetectionObject(
+				ROIs.createRectangleROI(x, 0, 10, 10, ImagePlane.getDefaultPlane()),
+				className == null ? null : PathClass.fromString(className));
+		detection.getMeasurementList().put("Area", area);
+		return detection;
+	}
+
+	private static PathObjectHierarchy createHierarchy() {
+		var hierarchy = new PathObjectHierarchy();
+		hierarchy.addObject(PathObjects.createAnnotationObject(
+				ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane())));
+		hierarchy.addObjects(List.of(
+				createDetection(0, "Tumor", 1),
+				createDetection(20, "Stroma", 2),
+				createDetection(40, null, 3)));
+		return hierarchy;
+	}
+
+	@Test
+	public void testSelectByType() {
+		var hierarchy = createHierarchy();
+
+		assertEquals(3, MeasurementQuery.select(hierarchy, "detection", null, null).size());
+		assertEquals(1, MeasurementQuery.select(hierarchy, "annotation", null, null).size());
+		assertEquals(4, MeasurementQuery.select(hierarchy, null, null, null).size());
+		assertThrows(IllegalArgumentException.class, () -> MeasurementQuery.select(hierarchy, "cells", null, null));
+	}
+
+	@Test
+	public void testSelectByClass() {
+		var hierarchy = createHierarchy();
+
+		var tumor = MeasurementQuery.select(hierarchy, "detection", "Tumor", null);
+		var unclassified = MeasurementQuery.select(hierarchy, "detection", "", null);
+
+		assertEquals(1, tumor.size());
+		assertEquals(1.0, tumor.get(0).getMeasurementList().get("Area"));
+		assertEquals(1, unclassified.size());
+		assertEquals(3.0, unclassified.get(0).getMeasurementList().get("Area"));
+	}
+
+	@Test
+	public void testMissingValuesAreNaN() {
+		var detections = List.of(createDetection(0, null, 5), createDetection(20, null, 6));
+
+		assertArrayEquals(new double[]{5, 6}, MeasurementQuery.values(detections, "Area"));
+		assertArrayEquals(new double[]{Double.NaN, Double.NaN}, MeasurementQuery.values(detections, "Perimeter"));
+	}
+
+	@Test
+	public void testColumnsArePacked() {
+		var detections = List.of(createDetection(0, null, 5), createDetection(20, null, 6));
+
+		var buffer = ByteBuffer.wrap(MeasurementQuery.toBytes(detections, List.of("Area", "Perimeter")))
+				.order(ByteOrder.LITTLE_ENDIAN)
+				.asDoubleBuffer();
+
+		assertEquals(4, buffer.remaining());
+		assertEquals(5.0, buffer.get(0));
+		assertEquals(6.0, buffer.get(1));
+		assertEquals(Double.NaN, buffer.get(2));
+		assertEquals(Double.NaN, buffer.get(3));
+	}
+}
@@ -0,0 +1,102 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.PixelType;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPixelBuffers {
+
+	private static BufferedImage createRGB() {
+		var img = new BufferedImage(2, 1, BufferedImage.TYPE_INT_RGB);
+		img.setRGB(0, 0, (1 << 16) | (2 << 8) | 3);
+		img.setRGB(1, 0, (4 << 16) | (5 << 8) | 6);
+		return img;
+	}
+
+	@Test
+	public void testRawHeader() {
+		byte[] bytes = PixelBuffers.toRawBytes(createRGB(), PixelType.UINT8, true);
+		var header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertArrayEquals(new byte[]{'Q', 'P', 'R', 'W'}, Arrays.copyOfRange(bytes, 0, 4));
+		assertEquals(PixelBuffers.RAW_HEADER_SIZE, header.getInt(4));
+		assertEquals(2, header.getInt(8));
+		assertEquals(1, header.getInt(12));
+		assertEquals(3, header.getInt(16));
+		assertEquals(0, header.getInt(20));
+		assertEquals(1, header.getInt(24));
+		assertEquals(PixelBuffers.RAW_HEADER_SIZE + 6, bytes.length);
+	}
+
+	@Test
+	public void testInterleavedSamples() {
+		byte[] bytes = PixelBuffers.toRawBytes(createRGB(), PixelType.UINT8, false);
+
+		assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6},
+				Arrays.copyOfRange(bytes, PixelBuffers.RAW_HEADER_SIZE, bytes.length));
+	}
+
+	@Test
+	public void testPlanarSamples() {
+		byte[] bytes = PixelBuffers.toRawBytes(createRGB(), PixelType.UINT8, true);
+
+		assertArrayEquals(new byte[]{1, 4, 2, 5, 3, 6},
+				Arrays.copyOfRange(bytes, PixelBuffers.RAW_HEADER_SIZE, bytes.length));
+	}
+
+	@Test
+	public void testFloatSamplesAreLittleEndian() {
+		var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+				false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+		var raster = colorModel.createCompatibleWritableRaster(1, 1);
+		raster.setSample(0, 0, 0, 1.5f);
+		var img = new BufferedImage(colorModel, raster, false, null);
+
+		var buffer = ByteBuffer.wrap(PixelBuffers.toRawBytes(img, PixelType.FLOAT32, false)).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(6, buffer.getInt(20));
+		assertEquals(1.5f, buffer.getFloat(PixelBuffers.RAW_HEADER_SIZE));
+	}
+
+	@Test
+	public void testSharedMemoryFileRelease() throws Exception {
+		var path = PixelBuffers.createSharedMemoryFile(".raw");
+
+		assertTrue(Files.exists(path));
+		assertTrue(PixelBuffers.releaseSharedMemoryFile(path.toString()));
+		assertFalse(Files.exists(path));
+	}
+
+	@Test
+	public void testOtherFilesAreNotReleased() throws Exception {
+		var path = Files.createTempFile("not-shared-", ".raw");
+		try {
+			assertFalse(PixelBuffers.releaseSharedMemoryFile(path.toString()));
+			assertTrue(Files.exists(path));
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testRootIsNotReleased() throws Exception {
+		for (var root : FileSystems.getDefault().getRootDirectories()) {
+			assertFalse(PixelBuffers.releaseSharedMemoryFile(root.toString()));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestRegionBatchReader {
+
+	@AfterEach
+	public void resetParallelism() {
+		RegionBatchReader.setParallelism(0);
+	}
+
+	@Test
+	public void testPackOffsets() {
+		byte[] packed = RegionBatchReader.pack(List.of(new byte[3], new byte[5]));
+		var buffer = ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN);
+		int headerSize = 4 + 4 + 3 * 8;
+
+		assertEquals(2, buffer.getInt(4));
+		assertEquals(headerSize, buffer.getLong(8));
+		assertEquals(headerSize + 3, buffer.getLong(16));
+		assertEquals(headerSize + 8, buffer.getLong(24));
+		assertEquals(headerSize + 8, packed.length);
+	}
+
+	@Test
+	public void testPackedRegionsMustBeComplete() {
+		var server = new WrappedBufferedImageServer("regions", new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY));
+
+		assertThrows(IllegalArgumentException.class, () -> RegionBatchReader.toRequests(server, 1.0, new int[5]));
+	}
+
+	@Test
+	public void testParallelismChangeDuringReads() throws Exception {
+		var server = new WrappedBufferedImageServer("regions", new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_GRAY));
+		var requests = new ArrayList<RegionRequest>();
+		for (int i = 0; i < 64; i++) {
+			requests.add(RegionRequest.createInstance(server.getPath(), 1.0, (i % 8) * 32, (i / 8) * 32, 32, 32));
+		}
+
+		var resizer = new Thread(() -> {
+			for (int p = 1; p <= 8; p++) {
+				RegionBatchReader.setParallelism(p % 3 + 1);
+			}
+		});
+		resizer.start();
+		byte[] packed = RegionBatchReader.read(server, requests, RegionBatchReader.FORMAT_RAW, false);
+		resizer.join();
+
+		assertEquals(64, ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).getInt(4));
+	}
+}
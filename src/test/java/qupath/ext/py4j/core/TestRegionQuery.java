@@ -0,0 +1,78 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestRegionQuery {
+
+	private static PathObjectHierarchy createHierarchy() {
+		var hierarchy = new PathObjectHierarchy();
+		hierarchy.addObject(PathObjects.createAnnotationObject(
+				ROIs.createRectangleROI(0, 0, 200, 100, ImagePlane.getDefaultPlane())));
+		var detections = new ArrayList<PathObject>();
+		for (int i = 0; i < 10; i++) {
+			detections.add(PathObjects.createDetectionObject(
+					ROIs.createRectangleROI(i * 20, 0, 10, 10, ImagePlane.getDefaultPlane())));
+		}
+		// on another z-slice, so never found in regions of the default plane
+		detections.add(PathObjects.createDetectionObject(
+				ROIs.createRectangleROI(0, 0, 10, 10, ImagePlane.getPlane(1, 0))));
+		hierarchy.addObjects(detections);
+		return hierarchy;
+	}
+
+	@Test
+	public void testFindByType() {
+		var hierarchy = createHierarchy();
+		var region = ImageRegion.createInstance(0, 0, 50, 50, 0, 0);
+
+		assertEquals(3, RegionQuery.find(hierarchy, region, RegionQuery.TYPE_DETECTION, false).size());
+		assertEquals(1, RegionQuery.find(hierarchy, region, RegionQuery.TYPE_ANNOTATION, false).size());
+		assertEquals(4, RegionQuery.find(hierarchy, region, RegionQuery.TYPE_ALL, false).size());
+		assertThrows(IllegalArgumentException.class, () -> RegionQuery.find(hierarchy, region, "cells", false));
+	}
+
+	@Test
+	public void testCentroidInside() {
+		var hierarchy = createHierarchy();
+		// intersects the detections at x = 40 and x = 60, but only contains the centroid of the second one
+		var region = ImageRegion.createInstance(48, 0, 20, 20, 0, 0);
+
+		var intersecting = RegionQuery.find(hierarchy, region, RegionQuery.TYPE_DETECTION, false);
+		var centered = RegionQuery.find(hierarchy, region, RegionQuery.TYPE_DETECTION, true);
+
+		assertEquals(2, intersecting.size());
+		assertEquals(1, centered.size());
+		assertEquals(60.0, centered.get(0).getROI().getBoundsX());
+	}
+
+	@Test
+	public void testGridFindsEachObjectOnce() {
+		var hierarchy = createHierarchy();
+		int found = 0;
+		for (int x = 0; x < 200; x += 25) {
+			found += RegionQuery.find(hierarchy, ImageRegion.createInstance(x, 0, 25, 100, 0, 0), null, true).size();
+		}
+
+		assertEquals(10, found);
+	}
+
+	@Test
+	public void testOtherPlanesAreIgnored() {
+		var hierarchy = createHierarchy();
+
+		var found = RegionQuery.find(hierarchy, ImageRegion.createInstance(0, 0, 10, 10, 1, 0), RegionQuery.TYPE_DETECTION, false);
+
+		assertEquals(1, found.size());
+	}
+}
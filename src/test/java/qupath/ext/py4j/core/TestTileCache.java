@@ -0,0 +1,93 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import qupath.lib.regions.RegionRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestTileCache {
+
+	private static final RegionRequest REQUEST = RegionRequest.createInstance("image", 1.0, 0, 0, 64, 64);
+
+	@AfterEach
+	public void resetCache() {
+		TileCache.getInstance().setMaxBytes(0);
+		TileCache.getInstance().clear();
+	}
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		var loads = new AtomicInteger();
+		var key = new TileCache.Key("image", "", REQUEST, "png");
+
+		TileCache.getInstance().get(key, () -> new byte[]{(byte) loads.incrementAndGet()});
+		TileCache.getInstance().get(key, () -> new byte[]{(byte) loads.incrementAndGet()});
+
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testFileVersionIsPartOfKey() throws Exception {
+		TileCache.getInstance().setMaxBytes(1024);
+		var loads = new AtomicInteger();
+
+		TileCache.getInstance().get(new TileCache.Key("image", "10:1", REQUEST, "png"), () -> new byte[]{(byte) loads.incrementAndGet()});
+		TileCache.getInstance().get(new TileCache.Key("image", "10:1", REQUEST, "png"), () -> new byte[]{(byte) loads.incrementAndGet()});
+		byte[] bytes = TileCache.getInstance().get(new TileCache.Key("image", "12:2", REQUEST, "png"), () -> new byte[]{(byte) loads.incrementAndGet()});
+
+		assertEquals(2, loads.get());
+		assertArrayEquals(new byte[]{2}, bytes);
+	}
+
+	@Test
+	public void testInvalidateRemovesRegionsOfServer() throws Exception {
+		TileCache.getInstance().setMaxBytes(1024);
+		TileCache.getInstance().get(new TileCache.Key("image", "", REQUEST, "png"), () -> new byte[4]);
+		TileCache.getInstance().get(new TileCache.Key("other", "", REQUEST, "png"), () -> new byte[4]);
+
+		assertEquals(1, TileCache.getInstance().invalidate("image"));
+		assertEquals(1, TileCache.getInstance().getStatistics().entries);
+		assertEquals(4, TileCache.getInstance().getStatistics().bytes);
+	}
+
+	@Test
+	public void testConcurrentMissesLoadOnce() throws Exception {
+		TileCache.getInstance().setMaxBytes(1024);
+		var key = new TileCache.Key("image", "", REQUEST, "png");
+		var loads = new AtomicInteger();
+		var release = new CountDownLatch(1);
+		var pool = Executors.newFixedThreadPool(4);
+		try {
+			var futures = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(pool.submit(() -> TileCache.getInstance().get(key, () -> {
+					loads.incrementAndGet();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					return new byte[]{42};
+				})));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (var future : futures) {
+				assertArrayEquals(new byte[]{42}, future.get());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(1, loads.get());
+	}
+}
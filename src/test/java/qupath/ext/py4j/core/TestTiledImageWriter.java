@@ -0,0 +1,102 @@
+package qupath.ext.py4j.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestTiledImageWriter {
+
+	@Test
+	public void testTilesAreReadBack() throws Exception {
+		try (var writer = new TiledImageWriter(6, 6, 1, "uint8", 4)) {
+			writer.writeTile(1, 0, filled(2 * 4, (byte) 200));
+
+			var img = writer.readLevel(0, 0, 0, 6, 6);
+
+			assertEquals(0, img.getRaster().getSample(0, 0, 0));
+			assertEquals(200, img.getRaster().getSample(5, 3, 0));
+			assertEquals(0, img.getRaster().getSample(5, 4, 0));
+			assertEquals(1, writer.getWrittenTileCount());
+		}
+	}
+
+	@Test
+	public void testTileSizeIsChecked() throws Exception {
+		try (var writer = new TiledImageWriter(6, 6, 1, "uint8", 4)) {
+			assertThrows(IllegalArgumentException.class, () -> writer.writeTile(0, 0, new byte[4]));
+			assertThrows(IllegalArgumentException.class, () -> writer.writeTile(2, 0, new byte[16]));
+		}
+	}
+
+	@Test
+	public void testLowerLevelsAreBlockAverages() throws Exception {
+		try (var writer = new TiledImageWriter(8, 8, 1, "uint8", 8)) {
+			var tile = new byte[64];
+			for (int y = 0; y < 8; y++) {
+				for (int x = 0; x < 8; x++) {
+					// left half 0 and 100 alternating rows, right half 40
+					tile[y * 8 + x] = (byte) (x < 4 ? (y % 2 == 0 ? 0 : 100) : 40);
+				}
+			}
+			writer.writeTile(0, 0, tile);
+			writer.buildLevels(3);
+
+			var level1 = writer.readLevel(1, 0, 0, 2, 2);
+			var level2 = writer.readLevel(2, 0, 0, 1, 1);
+
+			assertEquals(50, level1.getRaster().getSample(0, 0, 0));
+			assertEquals(40, level1.getRaster().getSample(1, 1, 0));
+			assertEquals(45, level2.getRaster().getSample(0, 0, 0));
+		}
+	}
+
+	@Test
+	public void testEachLowerLevelRowIsAveraged() throws Exception {
+		try (var writer = new TiledImageWriter(64, 64, 1, "uint8", 64)) {
+			var tile = new byte[64 * 64];
+			for (int y = 0; y < 64; y++) {
+				// each block of 4 rows has the value of its row in the lower level
+				Arrays.fill(tile, y * 64, (y + 1) * 64, (byte) (y / 4));
+			}
+			writer.writeTile(0, 0, tile);
+			writer.buildLevels(2);
+
+			var level1 = writer.readLevel(1, 0, 0, 16, 16);
+
+			for (int y = 0; y < 16; y++) {
+				assertEquals(y, level1.getRaster().getSample(0, y, 0));
+				assertEquals(y, level1.getRaster().getSample(15, y, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testUnsigned32BitSamplesAreNotClamped() throws Exception {
+		long value = 0xFFFF_FFF0L;
+		try (var writer = new TiledImageWriter(4, 4, 1, "uint32", 4)) {
+			var tile = ByteBuffer.allocate(16 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < 16; i++) {
+				tile.putInt((int) value);
+			}
+			writer.writeTile(0, 0, tile.array());
+			writer.buildLevels(2);
+
+			var level0 = writer.readLevel(0, 0, 0, 4, 4);
+			var level1 = writer.readLevel(1, 0, 0, 1, 1);
+
+			assertEquals(value, level0.getRaster().getSample(3, 3, 0) & 0xFFFF_FFFFL);
+			assertEquals(value, level1.getRaster().getSample(0, 0, 0) & 0xFFFF_FFFFL);
+		}
+	}
+
+	private static byte[] filled(int n, byte value) {
+		var bytes = new byte[n];
+		Arrays.fill(bytes, value);
+		return bytes;
+	}
+}